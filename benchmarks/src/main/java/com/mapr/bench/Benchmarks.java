@@ -0,0 +1,28 @@
+package com.mapr.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler always on so that allocation rates are reported
+ * next to throughput, and writes results as JSON to jmh-result.json unless told otherwise.
+ * Any of the usual JMH command line options can be given, for example a regex to pick
+ * benchmarks.
+ */
+public class Benchmarks {
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cl = new CommandLineOptions(args);
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(cl).addProfiler(GCProfiler.class);
+    if (!cl.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!cl.getResult().hasValue()) {
+      options.result("jmh-result.json");
+    }
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,45 @@
+package com.mapr.bench;
+
+import com.mapr.generate.ChineseRestaurant;
+import com.mapr.generate.FastRandom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Every write picks its block from a ChineseRestaurant, and sampling cost grows with the
+ * number of tables.  The restaurant keeps growing while it is measured, but slowly compared
+ * to its starting size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChineseRestaurantBenchmark {
+  @Param({"1000", "100000", "1000000"})
+  public int tables;
+
+  private ChineseRestaurant restaurant;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    restaurant = new ChineseRestaurant(tables, 0.5, new FastRandom(1));
+    while (restaurant.size() < tables) {
+      restaurant.sample();
+    }
+  }
+
+  @Benchmark
+  public Integer sample() {
+    return restaurant.sample();
+  }
+}
@@ -0,0 +1,78 @@
+package com.mapr.bench;
+
+import com.google.common.collect.Lists;
+import com.mapr.load.BaseFiler;
+import com.mapr.load.Generator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+
+/**
+ * The generator's dispatch loop with a filer that does nothing and never waits.  This is the
+ * fastest the generator can issue operations, so it bounds the rate any real run can reach.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratorBenchmark {
+  // one second of trace at this rate, half reads and half writes
+  private static final int EVENTS = 100000;
+
+  private final NullFiler filer = new NullFiler();
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public long dispatch() throws IOException, InterruptedException {
+    Generator g = new Generator(1);
+    g.setBlockSize(4096);
+    g.addTrace(Lists.newArrayList(new Generator.LoadSegment(EVENTS / 2, EVENTS / 2, 1)));
+    g.generate(filer);
+    return filer.operations;
+  }
+
+  /**
+   * Counts operations and keeps a virtual clock that sleeping simply moves forward.
+   */
+  private static class NullFiler extends BaseFiler {
+    private double now = 0;
+    private long operations = 0;
+
+    @Override
+    public void read(double t, int blockSize) {
+      operations++;
+    }
+
+    @Override
+    public void write(double t, int blockSize) {
+      operations++;
+    }
+
+    @Override
+    public double currentTime() {
+      return now;
+    }
+
+    @Override
+    public void sleep(double delay) {
+      now += delay;
+    }
+
+    @Override
+    public void segmentStart(double t) {
+    }
+
+    @Override
+    public void segmentEnd(double t) {
+    }
+  }
+}
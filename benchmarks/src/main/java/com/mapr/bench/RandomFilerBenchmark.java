@@ -0,0 +1,69 @@
+package com.mapr.bench;
+
+import com.mapr.load.RandomFiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * RandomFiler against a file in memory, so that what is measured is the filer's own overhead
+ * around each system call rather than a device.  The file goes in /dev/shm when there is one,
+ * otherwise in the temporary directory, which may not be memory backed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RandomFilerBenchmark {
+  private static final int BLOCK_SIZE = 4096;
+
+  private File file;
+  private RandomFiler filer;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    File shm = new File("/dev/shm");
+    file = shm.isDirectory() ? File.createTempFile("bench-", ".goo", shm) : File.createTempFile("bench-", ".goo");
+    filer = RandomFiler.create(file, 10000, 0.5, 1);
+    // enough blocks that reads have somewhere to go
+    for (int i = 0; i < 10000; i++) {
+      filer.write(filer.currentTime(), BLOCK_SIZE);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public void read() throws IOException {
+    filer.read(filer.currentTime(), BLOCK_SIZE);
+  }
+
+  @Benchmark
+  public void write() throws IOException {
+    filer.write(filer.currentTime(), BLOCK_SIZE);
+  }
+
+  /**
+   * Keeps the recorded latencies from growing without bound over a long run.
+   */
+  @TearDown(Level.Iteration)
+  public void resetStatistics() {
+    filer.reset(filer.currentTime());
+    filer.segmentStart(filer.currentTime());
+  }
+}
@@ -0,0 +1,62 @@
+package com.mapr.bench;
+
+import com.mapr.generate.FastRandom;
+import com.mapr.load.TopTailAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Recording a latency happens once per operation, so add() has to stay cheap even once the
+ * top tail tiers are full.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TopTailAnalyzerBenchmark {
+  private static final int LATENCIES = 1 << 16;
+
+  // how many samples the analyzer holds before measuring starts
+  @Param({"1000", "1000000"})
+  public int samples;
+
+  private TopTailAnalyzer analyzer;
+  private double[] latencies;
+  private int i = 0;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    // log-normal latencies around 1ms with a long tail
+    Random rand = new FastRandom(1);
+    latencies = new double[LATENCIES];
+    for (int j = 0; j < LATENCIES; j++) {
+      latencies[j] = 1e-3 * Math.exp(rand.nextGaussian());
+    }
+    analyzer = new TopTailAnalyzer();
+    for (int j = 0; j < samples; j++) {
+      analyzer.add(latencies[j % LATENCIES], 4096);
+    }
+  }
+
+  @Benchmark
+  public void add() {
+    analyzer.add(latencies[i++ & (LATENCIES - 1)], 4096);
+  }
+
+  @Benchmark
+  public double quantile() {
+    return analyzer.quantile(0.999);
+  }
+}
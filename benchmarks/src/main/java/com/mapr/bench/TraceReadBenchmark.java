@@ -0,0 +1,52 @@
+package com.mapr.bench;
+
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import com.mapr.load.Generator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Parses the bundled TSV traces, each of which is 25,200 one second segments.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceReadBenchmark {
+  @Param({"trace1.tsv", "trace2.tsv", "trace3.tsv"})
+  public String trace;
+
+  private File file;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    file = File.createTempFile("bench-", ".tsv");
+    Files.copy(Resources.newInputStreamSupplier(Resources.getResource(trace)), file);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public List<Generator.LoadSegment> readTraceFile() throws IOException {
+    return Generator.readTraceFile(file);
+  }
+}
@@ -17,33 +17,127 @@ package com.mapr;
  * 6) every half hour, a substantial read occurs of about 6000 blocks over a
  * period of 5 seconds or so.  This represents about 5MB/sec read rate.
  *
+ * Parts 1 to 5 are children of one CompositeFiler driven by the trace.  The
+ * database log is a truncating LogFiler, parts 2 and 3 are a RandomFiler on
+ * the database file and parts 4 and 5 are a wrapping LogFiler.  Part 6 is a
+ * synthetic trace of periodic batches replayed against the database file on
+ * a thread of its own.
+ *
  * Parameters are the proportion of writes that make up the total.  The reads
  * are determined by this because the reads in (5) are determined by the volume
- * of writes in (4).
+ * of writes in (4).  With -DlogWrites=F a fraction F of the writes go to each
+ * of the two logs and the rest to the database file, and the log reads get the
+ * same share of the reads as the log writes get of the writes.  -Ddir sets
+ * where the files go and -Dprefill=N lays out N MB of database file first.
  */
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.mapr.generate.ChineseRestaurant;
+import com.mapr.load.CompositeFiler;
 import com.mapr.load.Filer;
+import com.mapr.load.Generator;
+import com.mapr.load.LatencySummary;
+import com.mapr.load.LogFiler;
+import com.mapr.load.Prefill;
+import com.mapr.load.RandomFiler;
+import com.mapr.load.SyntheticTrace;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.*;
 
 public class CustomerLoad {
+   private static final int BLOCK_SIZE = 4096;
+   private static final long LOG_SIZE = 64 << 20;
+
+   public static void main(String[] args) throws InterruptedException, ExecutionException, IOException {
+       File dir = new File(System.getProperty("dir", "."));
+       File data = new File(dir, "customer-data.goo");
+       data.deleteOnExit();
+       Prefill.fill(data, (Long.getLong("prefill", 100) << 20) / BLOCK_SIZE, BLOCK_SIZE, 4);
+
+       final CompositeFiler mix = mix(dir, data, Double.parseDouble(System.getProperty("logWrites", "0.25")));
+       // batch reads are uniform and reported with the total at the end
+       final RandomFiler batch = new RandomFiler(data, new ChineseRestaurant(1000000, 1), 1);
+       batch.setReporting(false);
+
+       ExecutorService pool = Executors.newFixedThreadPool(2);
+       try {
+           for (String trace : args) {
+               final Generator g = new Generator();
+               g.setBlockSize(BLOCK_SIZE);
+               List<Generator.LoadSegment> segments = Generator.openTrace(new File(trace));
+               g.addTrace(segments);
 
-   private static int numberOfThreads = 5;
+               double length = 0;
+               for (Generator.LoadSegment segment : segments) {
+                   length += segment.getSegmentDuration();
+               }
+               final Generator batches = new Generator();
+               batches.setBlockSize(BLOCK_SIZE);
+               batches.addTrace(new SyntheticTrace(SyntheticTrace.periodicBatch(6000, 5, 1800, 0),
+                       SyntheticTrace.constant(0), length, 60));
 
-   public static void main(String[] args) throws InterruptedException, ExecutionException {
-       List<Callable<Filer>> tasks = Lists.newArrayList();
-       for (int i = 0; i < numberOfThreads; i++) {
-           tasks.add(new GeneratorThread(args));
+               mix.reset(mix.currentTime());
+               batch.reset(batch.currentTime());
+               List<Callable<Void>> tasks = Lists.newArrayList();
+               tasks.add(new Callable<Void>() {
+                   @Override
+                   public Void call() throws Exception {
+                       g.generate(mix);
+                       return null;
+                   }
+               });
+               tasks.add(new Callable<Void>() {
+                   @Override
+                   public Void call() throws Exception {
+                       batches.generate(batch);
+                       return null;
+                   }
+               });
+               for (Future<Void> result : pool.invokeAll(tasks)) {
+                   result.get();
+               }
+           }
+       } finally {
+           pool.shutdown();
        }
-       ExecutorService pool = Executors.newFixedThreadPool(numberOfThreads);
-       List<Future<Filer>> results = pool.invokeAll(tasks);
-       pool.shutdown();
 
-       // can iterate through results here to aggregate stats.
-       for (Future<Filer> result : results) {
-           System.out.printf("result = %.3f\n", result.get().quantiles(Filer.Op.READ, 10));
+       // merge the summaries of all parts into one global view
+       double t = mix.currentTime();
+       for (Filer.Op op : Filer.Op.values()) {
+           LatencySummary summary = new LatencySummary();
+           summary.merge(mix.summary(op));
+           summary.merge(batch.summary(op));
+           System.out.printf("%s samples = %d, %.1f blocks/s", op, summary.size(), summary.meanBlocksPerSecond(t));
+           if (summary.size() > 100) {
+               System.out.printf(", p99 = %.4f, p99.9 = %.4f, p99.99 = %.4f",
+                       summary.quantiles(2), summary.quantiles(3), summary.quantiles(4));
+           }
+           System.out.printf("\n");
        }
    }
+
+   /**
+    * Builds parts 1 to 5 of the mix.
+    *
+    * @param dir        Where the logs go.
+    * @param data       The database file.
+    * @param logWrites  Fraction of writes that goes to each log.
+    */
+   public static CompositeFiler mix(File dir, File data, double logWrites) throws IOException {
+       Preconditions.checkArgument(logWrites > 0 && logWrites < 0.5, "Each log must get between 0 and half of the writes, got %s", logWrites);
+       File databaseLog = new File(dir, "customer-db.log");
+       databaseLog.deleteOnExit();
+       File log = new File(dir, "customer.log");
+       log.deleteOnExit();
+
+       CompositeFiler mix = new CompositeFiler();
+       mix.add("db-log", LogFiler.create(databaseLog, LOG_SIZE, BLOCK_SIZE, LogFiler.Mode.TRUNCATE, 0), 0, logWrites);
+       mix.add("data", new RandomFiler(data, new ChineseRestaurant(1000000, 1), 1), 1 - logWrites, 1 - 2 * logWrites);
+       mix.add("log", LogFiler.create(log, LOG_SIZE, BLOCK_SIZE, LogFiler.Mode.WRAP, 100), logWrites, logWrites);
+       return mix;
+   }
 }
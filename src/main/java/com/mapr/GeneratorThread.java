@@ -35,7 +35,7 @@ public class GeneratorThread implements Callable<Filer> {
         for (String trace : args) {
             actor.reset(actor.currentTime());
             log.debug("Adding trace {}", trace);
-            g.addTrace(Generator.readTraceFile(new File(trace)));
+            g.addTrace(Generator.openTrace(new File(trace)));
             g.generate(0, Double.MAX_VALUE, 0.2, actor);
         }
         return actor;
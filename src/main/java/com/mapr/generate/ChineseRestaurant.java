@@ -20,6 +20,7 @@ package com.mapr.generate;
 import com.google.common.base.Preconditions;
 import org.apache.mahout.math.list.DoubleArrayList;
 
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -27,7 +28,8 @@ import java.util.Random;
  * process.  If discount = 0, this reduces to the normal Chinese Restaurant process.  For discount
  * near 1, you should get a power law type of distribution.
  *
- *
+ * The selection weights (w_j - discount) of existing tables are kept in a Fenwick tree so that
+ * sampling and incrementing a table cost O(log n) in the number of tables rather than O(n).
  */
 public class ChineseRestaurant implements Sampler<Integer> {
   private double alpha;
@@ -35,39 +37,64 @@ public class ChineseRestaurant implements Sampler<Integer> {
   private double discount = 0;
   private DoubleArrayList weights = new DoubleArrayList();
 
-  private Random rand = new Random();
+  // tree[i] holds the sum of (w_j - discount) for j in (i - lowbit(i), i], 1-based
+  private double[] tree = new double[16];
+
+  private Random rand;
 
   public ChineseRestaurant(double alpha, double discount) {
+    this(alpha, discount, new FastRandom());
+  }
+
+  public ChineseRestaurant(double alpha, double discount, Random rand) {
     Preconditions.checkArgument(alpha > 0);
     Preconditions.checkArgument(discount >= 0 && discount <= 1);
     this.alpha = alpha;
     this.discount = discount;
+    this.rand = rand;
   }
 
   public Integer sample() {
+    final int n = weights.size();
     double u = rand.nextDouble() * (alpha + weight);
-    for (int j = 0; j < weights.size(); j++) {
-      // select existing options with probability (w_j - d) / (alpha + w)
-      if (u < weights.get(j) - discount) {
-        weights.set(j, weights.get(j) + 1);
-        weight++;
-        return j;
-      } else {
-        u -= weights.get(j) - discount;
-      }
+
+    // select existing options with probability (w_j - d) / (alpha + w)
+    if (u < weight - discount * n) {
+      final int j = Math.min(find(u), n - 1);
+      weights.set(j, weights.get(j) + 1);
+      increment(j);
+      weight++;
+      return j;
     }
 
     // if no existing item selected, pick new item with probability (alpha - d*t)/ (alpha + w)
     // where t is number of pre-existing cases
     weights.add(1);
+    append(1 - discount);
     weight++;
-    return weights.size() - 1;
+    return n;
   }
 
   public int size() {
     return weights.size();
   }
 
+  /**
+   * Returns a sampler that picks existing tables in proportion to their popularity without
+   * seating anybody.  This lets a second access stream share the popularity of this one.
+   * The returned sampler throws IllegalStateException if no table has been created yet.
+   */
+  public Sampler<Integer> popularity() {
+    return new Sampler<Integer>() {
+      public Integer sample() {
+        final int n = weights.size();
+        Preconditions.checkState(n > 0, "No tables to choose from");
+        double u = rand.nextDouble() * (weight - discount * n);
+        return Math.min(find(u), n - 1);
+      }
+    };
+  }
+
   public int count() {
     return (int) weight;
   }
@@ -81,4 +108,47 @@ public class ChineseRestaurant implements Sampler<Integer> {
       return 0;
     }
   }
+
+  /**
+   * Returns the smallest index j such that the sum of (w_k - d) for k <= j exceeds u.
+   */
+  private int find(double u) {
+    final int n = weights.size();
+    int pos = 0;
+    for (int step = Integer.highestOneBit(n); step > 0; step >>= 1) {
+      final int next = pos + step;
+      if (next <= n && tree[next] <= u) {
+        pos = next;
+        u -= tree[next];
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Adds one to the weight of table j.
+   */
+  private void increment(int j) {
+    final int n = weights.size();
+    for (int i = j + 1; i <= n; i += i & -i) {
+      tree[i] += 1;
+    }
+  }
+
+  /**
+   * Extends the tree after a new table has been added to weights.
+   */
+  private void append(double value) {
+    final int i = weights.size();
+    if (i >= tree.length) {
+      tree = Arrays.copyOf(tree, 2 * tree.length);
+    }
+    // a node covers itself plus the nodes that end just below it
+    double sum = value;
+    final int low = i & -i;
+    for (int k = 1; k < low; k <<= 1) {
+      sum += tree[i - k];
+    }
+    tree[i] = sum;
+  }
 }
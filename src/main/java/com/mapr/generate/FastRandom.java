@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapr.generate;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fast, non-synchronized random number generator based on SplitMix64.  This is a drop-in
+ * replacement for java.util.Random (which updates a shared seed with a CAS on every call) for
+ * generators that are only used by one thread at a time.  Give each thread its own instance,
+ * either with an explicit seed or with split().
+ *
+ * Instances created without a seed take one from a process-wide sequence.  That sequence
+ * starts from the "seed" system property if it is set so that a run can be replayed exactly.
+ */
+public class FastRandom extends Random {
+  private static final long serialVersionUID = 1L;
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private static final AtomicLong seeds = new AtomicLong(
+    Long.getLong("seed", System.nanoTime() ^ System.currentTimeMillis()));
+
+  private long state;
+
+  public FastRandom() {
+    this(mix(seeds.getAndAdd(GOLDEN_GAMMA)));
+  }
+
+  public FastRandom(long seed) {
+    super(seed);
+  }
+
+  /**
+   * Returns a new generator whose sequence is independent of this one.
+   */
+  public FastRandom split() {
+    return new FastRandom(nextLong());
+  }
+
+  @Override
+  public void setSeed(long seed) {
+    // called by the Random constructor
+    state = seed;
+  }
+
+  @Override
+  protected int next(int bits) {
+    return (int) (nextLong() >>> (64 - bits));
+  }
+
+  @Override
+  public long nextLong() {
+    state += GOLDEN_GAMMA;
+    return mix(state);
+  }
+
+  @Override
+  public int nextInt() {
+    return (int) nextLong();
+  }
+
+  @Override
+  public double nextDouble() {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+
+  @Override
+  public boolean nextBoolean() {
+    return nextLong() < 0;
+  }
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,141 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Supplies the random numbers that drive a generator in precomputed batches so that the
+ * dispatch loop doesn't pay for a logarithm and two random draws per event.
+ *
+ * Each event gets a unit rate exponential gap and a uniform value for choosing between a read
+ * and a write.  Neither depends on the rates in the trace, so batches can be filled well ahead
+ * of time; the generator turns them into arrival times by dividing by the current rate.
+ *
+ * Batches are either filled inline when the last one runs out or, if a depth is given, by a
+ * background thread that keeps that many batches ready.  Either way the values are drawn from
+ * the random number generator in the same order, so a seeded run is reproducible in both modes.
+ */
+public class ArrivalSchedule {
+  public static final int DEFAULT_BATCH_SIZE = 4096;
+
+  private final Random rand;
+
+  // batches go round from free to ready and back again
+  private final BlockingQueue<Batch> free = new LinkedBlockingQueue<Batch>();
+  private final BlockingQueue<Batch> ready = new LinkedBlockingQueue<Batch>();
+  private final boolean background;
+
+  private volatile Thread producer;
+
+  private Batch current;
+  private int i;
+
+  /**
+   * @param rand       Where the random numbers come from.  If there is a background thread, this
+   *                   must not be used by anyone else.
+   * @param batchSize  How many events are computed at a time.
+   * @param depth      How many batches a background thread keeps ready, zero to fill batches
+   *                   inline.
+   */
+  public ArrivalSchedule(Random rand, int batchSize, int depth) {
+    Preconditions.checkArgument(batchSize > 0, "Batch size must be positive");
+    Preconditions.checkArgument(depth >= 0, "Depth must not be negative");
+    this.rand = rand;
+    this.background = depth > 0;
+    current = new Batch(batchSize);
+    current.fill(rand);
+    for (int k = 0; k < depth; k++) {
+      free.add(new Batch(batchSize));
+    }
+  }
+
+  /**
+   * Moves on to the next event.
+   */
+  public void next() throws InterruptedException {
+    i++;
+    if (i >= current.gaps.length) {
+      if (background) {
+        if (producer == null) {
+          start();
+        }
+        free.add(current);
+        current = ready.take();
+      } else {
+        current.fill(rand);
+      }
+      i = 0;
+    }
+  }
+
+  /**
+   * @return The gap before the current event for a process with a rate of one event per second.
+   */
+  public double gap() {
+    return current.gaps[i];
+  }
+
+  /**
+   * @return A uniform value on [0, 1) used to pick the type of the current event.
+   */
+  public double choice() {
+    return current.choices[i];
+  }
+
+  /**
+   * Starts the background thread, if there is to be one.  This happens on demand, but starting
+   * early gives the thread a head start.
+   */
+  public synchronized void start() {
+    if (background && producer == null) {
+      producer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              // the only blocking point, so an interrupt never loses a partly filled batch
+              Batch b = free.take();
+              b.fill(rand);
+              ready.add(b);
+            }
+          } catch (InterruptedException e) {
+            // stopped
+          }
+        }
+      }, "arrival-schedule");
+      producer.setDaemon(true);
+      producer.start();
+    }
+  }
+
+  /**
+   * Stops the background thread.  Batches that are already filled are kept for the next start.
+   */
+  public synchronized void stop() throws InterruptedException {
+    if (producer != null) {
+      producer.interrupt();
+      producer.join();
+      producer = null;
+    }
+  }
+
+  private static class Batch {
+    private final double[] gaps;
+    private final double[] choices;
+
+    private Batch(int size) {
+      gaps = new double[size];
+      choices = new double[size];
+    }
+
+    private void fill(Random rand) {
+      for (int k = 0; k < gaps.length; k++) {
+        gaps[k] = -Math.log(1 - rand.nextDouble());
+        choices[k] = rand.nextDouble();
+      }
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package com.mapr.load;
+
+import com.mapr.generate.ChineseRestaurant;
+import com.mapr.generate.FastRandom;
+import com.mapr.generate.Sampler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Does the same uniform reads and power law distributed writes as RandomFiler, but with up to
+ * a configurable number of operations outstanding at once.  Operations are issued through an
+ * AsynchronousFileChannel and read() and write() only block when the queue is full.
+ *
+ * Latency is recorded from the completion handlers which run on other threads, which BaseFiler
+ * allows without locking.  Outstanding operations are drained at the end of each segment so
+ * that segment statistics are complete.
+ */
+public class AsyncFiler extends RealTimeFiler {
+  private final AsynchronousFileChannel channel;
+  private final Sampler<Integer> sampler;
+  private final Random rand = new FastRandom();
+
+  // one context per possible outstanding operation, each with its own buffer
+  private final int queueDepth;
+  private final BlockingQueue<Pending> free;
+
+  // with several writes outstanding, one further along the file can land first and leave a hole
+  private final AtomicInteger writesInFlight = new AtomicInteger();
+
+  private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+  private final Completion completion = new Completion();
+
+  public static AsyncFiler create(File f, double alpha, double discount, double timeRate, int queueDepth) throws IOException {
+    return new AsyncFiler(f, new ChineseRestaurant(alpha, discount), timeRate, queueDepth);
+  }
+
+  public AsyncFiler(File f, Sampler<Integer> sampler, double timeRate, int queueDepth) throws IOException {
+    super(timeRate);
+    this.sampler = sampler;
+    this.queueDepth = queueDepth;
+    channel = AsynchronousFileChannel.open(f.toPath(),
+      StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    free = new ArrayBlockingQueue<Pending>(queueDepth);
+    for (int i = 0; i < queueDepth; i++) {
+      free.add(new Pending());
+    }
+  }
+
+  @Override
+  public void read(double t, int blockSize) throws IOException {
+    checkFailure();
+    final long blocks = channel.size() / blockSize;
+    if (blocks == 0) {
+      throw new IOException("Can't read from an empty file");
+    }
+
+    Pending p = acquire(blockSize, Op.READ);
+    // any hole below the size read above is being written by a write that is still in flight
+    p.mayBeHole = writesInFlight.get() > 0;
+    p.block = rand.nextInt((int) blocks);
+    p.buf.clear();
+    p.start = startTime(t);
+    issue(p, p.block * blockSize);
+  }
+
+  @Override
+  public void write(double t, int blockSize) throws IOException {
+    checkFailure();
+    Pending p = acquire(blockSize, Op.WRITE);
+    p.block = sampler.sample();
+    p.buf.clear();
+    p.buf.putLong(p.block);
+    p.buf.position(0);
+    p.start = startTime(t);
+    writesInFlight.incrementAndGet();
+    issue(p, p.block * blockSize);
+  }
+
+  /**
+   * Starts or continues an operation.  The slot is given back if the channel refuses it.
+   */
+  private void issue(Pending p, long position) {
+    try {
+      if (p.op == Op.READ) {
+        channel.read(p.buf, position, p, completion);
+      } else {
+        channel.write(p.buf, position, p, completion);
+      }
+    } catch (RuntimeException e) {
+      release(p);
+      throw e;
+    }
+  }
+
+  private void release(Pending p) {
+    if (p.op == Op.WRITE) {
+      writesInFlight.decrementAndGet();
+    }
+    free.add(p);
+  }
+
+  private Pending acquire(int blockSize, Op op) throws IOException {
+    final Pending p;
+    try {
+      p = free.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a free I/O slot");
+    }
+    if (p.buf == null || p.buf.capacity() != blockSize) {
+      p.buf = ByteBuffer.allocateDirect(blockSize);
+      byte[] fill = new byte[blockSize];
+      rand.nextBytes(fill);
+      p.buf.put(fill);
+    }
+    p.op = op;
+    return p;
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable e = failure.get();
+    if (e instanceof IOException) {
+      throw new IOException(e.getMessage(), e);
+    } else if (e != null) {
+      throw new IOException("Asynchronous I/O failed", e);
+    }
+  }
+
+  /**
+   * Waits for all outstanding operations to complete.
+   */
+  private void drain() {
+    Pending[] all = new Pending[queueDepth];
+    boolean interrupted = false;
+    for (int i = 0; i < queueDepth; i++) {
+      while (all[i] == null) {
+        try {
+          all[i] = free.take();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    for (Pending p : all) {
+      free.add(p);
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void segmentStart(double t) {
+    drain();
+    super.segmentStart(t);
+  }
+
+  @Override
+  public void segmentEnd(double t) {
+    drain();
+    super.segmentEnd(t);
+  }
+
+  @Override
+  public void reset(double t) {
+    drain();
+    super.reset(t);
+  }
+
+  private static class Pending {
+    private Op op;
+    private long block;
+    private double start;
+    private ByteBuffer buf;
+    // true if a zero block may be a hole left by an outstanding write rather than corruption
+    private boolean mayBeHole;
+  }
+
+  private class Completion implements CompletionHandler<Integer, Pending> {
+    @Override
+    public void completed(Integer result, Pending p) {
+      final int blockSize = p.buf.capacity();
+      if (result >= 0 && p.buf.hasRemaining()) {
+        // partial transfer, continue where we left off
+        try {
+          issue(p, p.block * blockSize + p.buf.position());
+        } catch (RuntimeException e) {
+          failure.compareAndSet(null, e);
+        }
+        return;
+      }
+
+      try {
+        if (p.op == Op.READ) {
+          if (result < 0) {
+            throw new IOException("Short read of block " + p.block);
+          }
+          final long header = p.buf.getLong(0);
+          if (header != p.block && !(header == 0 && p.mayBeHole)) {
+            throw new IOException("Block has incorrect content");
+          }
+        }
+        final double t1 = currentTime();
+        recordLatency(p.op, t1 - p.start, blockSize);
+      } catch (IOException e) {
+        failure.compareAndSet(null, e);
+      } finally {
+        release(p);
+      }
+    }
+
+    @Override
+    public void failed(Throwable e, Pending p) {
+      failure.compareAndSet(null, e);
+      release(p);
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package com.mapr.load;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands metrics to another sink on a background thread so that formatting and writing them
+ * never holds up the thread doing the I/O being measured.
+ *
+ * write() never blocks.  If the background thread falls so far behind that the queue fills,
+ * metrics are dropped and counted, and close() reports how many.  A failure of the underlying
+ * sink is thrown from the next write() or from close().
+ */
+public class AsyncMetricsSink implements MetricsSink {
+  private static final int DEFAULT_CAPACITY = 10000;
+
+  // tells the writer thread to finish
+  private static final SegmentMetrics END = new SegmentMetrics(0, 0, new LatencySummary(), new LatencySummary(),
+    new LatencySummary(), new LatencySummary(), null);
+
+  private final MetricsSink delegate;
+  private final BlockingQueue<SegmentMetrics> queue;
+  private final Thread writer;
+
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+  public AsyncMetricsSink(MetricsSink delegate) {
+    this(delegate, DEFAULT_CAPACITY);
+  }
+
+  public AsyncMetricsSink(MetricsSink delegate, int capacity) {
+    this.delegate = delegate;
+    this.queue = new ArrayBlockingQueue<SegmentMetrics>(capacity);
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    }, "metrics-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private void drain() {
+    try {
+      while (true) {
+        SegmentMetrics m = queue.take();
+        if (m == END) {
+          return;
+        }
+        // after a failure keep taking metrics so that nobody waits on a full queue
+        if (failure.get() == null) {
+          try {
+            delegate.write(m);
+          } catch (IOException e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      // abandoned
+    }
+  }
+
+  @Override
+  public void write(SegmentMetrics metrics) throws IOException {
+    checkFailure();
+    if (!queue.offer(metrics)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    IOException e = failure.get();
+    if (e != null) {
+      throw new IOException("Writing metrics failed", e);
+    }
+  }
+
+  /**
+   * Returns how many segments were dropped because the queue was full.
+   */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Waits for all queued metrics to be written and closes the underlying sink.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      queue.put(END);
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      writer.interrupt();
+    }
+    delegate.close();
+    checkFailure();
+    if (dropped.get() > 0) {
+      throw new IOException(String.format("Dropped metrics for %d segments", dropped.get()));
+    }
+  }
+}
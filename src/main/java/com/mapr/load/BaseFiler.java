@@ -1,95 +1,459 @@
 package com.mapr.load;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Keeps latency statistics for a filer.
+ *
+ * Any number of threads can record at once.  Each thread records into its own Interval without
+ * locks, and these are harvested into the shared summaries under a WriterReaderPhaser whenever
+ * statistics are read or a segment starts or ends.  The summaries returned by summary() and
+ * segmentSummary() are stable until the next harvest.
+ */
 public class BaseFiler implements Filer {
   // these are reset per trace
-  private TopTailAnalyzer[] longAnalyzer = new TopTailAnalyzer[2];
+  private LatencySummary[] longSummary = new LatencySummary[2];
 
   // these are reset per segment
-  private TopTailAnalyzer[] shortAnalyzer = new TopTailAnalyzer[2];
+  private LatencySummary[] shortSummary = new LatencySummary[2];
+
+  // how late operations were issued relative to their schedule, per segment
+  private final LatencyHistogram slippage = new LatencyHistogram();
+
+  // how far from their deadlines waits finished, per segment
+  private final LatencyHistogram pacingError = new LatencyHistogram();
+
+  // every thread that has recorded anything has a recorder here
+  private final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+  private final ThreadLocal<Recorder> recorder = new ThreadLocal<Recorder>() {
+    @Override
+    protected Recorder initialValue() {
+      Recorder r = new Recorder();
+      recorders.add(r);
+      return r;
+    }
+  };
+  private final WriterReaderPhaser phaser = new WriterReaderPhaser();
 
   double t0 = System.nanoTime() * 1e-9;
 
+  // measure latency from when an operation was scheduled rather than when it was issued
+  private boolean latencyFromSchedule = false;
+
+  // where segment metrics go, null to print the traditional report
+  private MetricsSink metricsSink;
+
+  // false when someone else reports this filer's segments
+  private volatile boolean reporting = true;
+
+  // counters that can be scraped during a run, may be shared with other filers
+  private LiveMetrics liveMetrics;
+
+  // handles whatever a subclass doesn't, null if nothing does
+  private Filer delegate;
+
   public BaseFiler() {
-    for (int i = 0; i < longAnalyzer.length; i++) {
-      longAnalyzer[i] = new TopTailAnalyzer();
-      shortAnalyzer[i] = new TopTailAnalyzer();
+    for (int i = 0; i < longSummary.length; i++) {
+      longSummary[i] = new LatencySummary();
+      shortSummary[i] = new LatencySummary();
     }
   }
 
+  /**
+   * Hands the operations and timing that this filer doesn't implement itself to another filer.
+   * This lets a filer that only does writes, for instance, be combined with one that does reads
+   * and keeps time.  Statistics are still kept separately by each filer.
+   *
+   * @param baseFiler  Where unhandled calls go.
+   * @return This filer.
+   */
   public Filer with(Filer baseFiler) {
-    // ignore
+    this.delegate = baseFiler;
     return this;
   }
 
   public void read(double t, int blockSize) throws IOException {
-    throw new UnsupportedOperationException("default no can do");  //To change body of created methods use File | Settings | File Templates.
+    unhandled("read").read(t, blockSize);
   }
 
   public void write(double t, int blockSize) throws IOException {
-    throw new UnsupportedOperationException("default no can do");  //To change body of created methods use File | Settings | File Templates.
+    unhandled("write").write(t, blockSize);
+  }
+
+  private Filer unhandled(String operation) {
+    if (delegate == null) {
+      throw new UnsupportedOperationException(getClass().getSimpleName() + " can't " + operation + " and has no filer to delegate to");
+    }
+    return delegate;
+  }
+
+  /**
+   * Controls where latency measurements start.  By default latency is the time spent in the
+   * I/O call.  For open-loop load, latency should instead start at the scheduled time of the
+   * operation so that queueing delay is included.
+   *
+   * @param latencyFromSchedule  True if latency should be measured from the scheduled time.
+   */
+  public void setLatencyFromSchedule(boolean latencyFromSchedule) {
+    this.latencyFromSchedule = latencyFromSchedule;
+  }
+
+  /**
+   * Returns the time from which the latency of an operation should be measured.
+   *
+   * @param scheduled  The time the generator scheduled the operation for.
+   * @return The current time or, if measuring from the schedule, the scheduled time (but never
+   * later than now since the generator may issue operations a little early).
+   */
+  protected final double startTime(double scheduled) {
+    final double now = currentTime();
+    final double late = Math.max(0, now - scheduled);
+    final Recorder r = recorder.get();
+    final long phase = phaser.writerCriticalSectionEnter();
+    try {
+      r.active.slippage.add(late);
+    } finally {
+      phaser.writerCriticalSectionExit(phase);
+    }
+    if (liveMetrics != null) {
+      liveMetrics.recordSlippage(late);
+    }
+    return latencyFromSchedule ? Math.min(scheduled, now) : now;
+  }
+
+  /**
+   * Sends the metrics of each segment to a sink instead of printing the usual report.
+   *
+   * @param metricsSink  Where metrics go, null to go back to printing.
+   */
+  public void setMetricsSink(MetricsSink metricsSink) {
+    this.metricsSink = metricsSink;
+  }
+
+  /**
+   * Also records every operation in a set of live metrics, usually one served by a
+   * MetricsServer.
+   */
+  public void setLiveMetrics(LiveMetrics liveMetrics) {
+    this.liveMetrics = liveMetrics;
+  }
+
+  /**
+   * Turns this filer's own segment reports on or off.  Segments still end as usual when they
+   * are off, which is what a caller that reports on several filers together wants.
+   */
+  public void setReporting(boolean reporting) {
+    this.reporting = reporting;
+  }
+
+  protected MetricsSink getMetricsSink() {
+    return metricsSink;
+  }
+
+  /**
+   * True if segment reports should be printed rather than sent to a sink or left out.
+   */
+  protected boolean isPrinting() {
+    return reporting && metricsSink == null;
   }
 
   public void segmentStart(double t) {
-    for (TopTailAnalyzer analyzer : shortAnalyzer) {
-      analyzer.reset(t);
+    phaser.readerLock();
+    try {
+      // anything recorded since the last harvest still counts for the trace
+      harvest();
+      for (LatencySummary summary : shortSummary) {
+        summary.reset(t);
+      }
+      slippage.reset();
+      pacingError.reset();
+    } finally {
+      phaser.readerUnlock();
     }
   }
 
   public void segmentEnd(double t) {
+    harvest();
+    if (!reporting) {
+      return;
+    }
+    final double elapsed = System.nanoTime() * 1e-9 - t0;
+    if (metricsSink != null) {
+      writeMetrics(metricsSink, segmentMetrics(elapsed, t));
+    } else {
+      System.out.println(formatSegment(elapsed, t,
+        summary(Op.WRITE), segmentSummary(Op.WRITE), summary(Op.READ), segmentSummary(Op.READ)));
+    }
+  }
 
-    String s = String.format("%10.3f %5d %5d ", System.nanoTime() * 1e-9 - t0, latencySamples(Op.WRITE), latencySamples(Op.READ));
+  /**
+   * Collects the metrics for the segment that is ending.  Subclasses can override this to fill
+   * in the metrics that only they know about.
+   */
+  protected SegmentMetrics segmentMetrics(double elapsed, double t) {
+    SegmentMetrics m = new SegmentMetrics(elapsed, t, summary(Op.WRITE), segmentSummary(Op.WRITE),
+      summary(Op.READ), segmentSummary(Op.READ), segmentSlippage());
+    m.setPacingError(segmentPacingError());
+    return m;
+  }
 
-    if (latencySamples(Op.WRITE) > 100) {
-      s += String.format("%.3f %.3f %.3f %.3f %.3f %.3f",
-        meanBlocksPerSecond(Op.WRITE, t), quantiles(Op.WRITE, 2), quantiles(Op.WRITE, 3), quantiles(Op.WRITE, 4), quantiles(Op.WRITE, 5), quantiles(Op.WRITE, 20));
-      if (latencySamples(Op.READ) > 100) {
-        s += String.format(" %.3f %.3f %.3f %.3f %.3f %.3f",
-          meanBlocksPerSecond(Op.READ, t), quantiles(Op.READ, 2), quantiles(Op.READ, 3), quantiles(Op.READ, 4), quantiles(Op.READ, 5), quantiles(Op.READ, 20));
+  /**
+   * Returns the sequential write and cache hit counts for the segment, or null if this filer
+   * doesn't keep them.
+   */
+  SegmentMetrics.Counts segmentCounts() {
+    return null;
+  }
+
+  /**
+   * Writes metrics to a sink.  Segment boundaries can't throw IOException so failures are
+   * wrapped.
+   */
+  static void writeMetrics(MetricsSink sink, SegmentMetrics metrics) {
+    try {
+      sink.write(metrics);
+    } catch (IOException e) {
+      throw new IllegalStateException("Can't write segment metrics", e);
+    }
+  }
+
+  /**
+   * Returns how late operations in the current segment were issued relative to their
+   * schedule.  Only operations timed with startTime() are included.
+   */
+  public LatencyHistogram segmentSlippage() {
+    harvest();
+    return slippage;
+  }
+
+  /**
+   * Records how far from its deadline a wait finished.
+   */
+  protected final void recordPacingError(double error) {
+    final Recorder r = recorder.get();
+    final long phase = phaser.writerCriticalSectionEnter();
+    try {
+      r.active.pacing.add(error);
+    } finally {
+      phaser.writerCriticalSectionExit(phase);
+    }
+  }
+
+  /**
+   * Returns how far from their deadlines the waits of the current segment finished, in real
+   * seconds.
+   */
+  public LatencyHistogram segmentPacingError() {
+    harvest();
+    return pacingError;
+  }
+
+  /**
+   * Moves everything recorded by all threads since the last harvest into the shared
+   * summaries.  Recording threads are never blocked.
+   */
+  protected final void harvest() {
+    phaser.readerLock();
+    try {
+      for (Recorder r : recorders) {
+        Interval full = r.active;
+        r.active = r.inactive;
+        r.inactive = full;
       }
+      // after this, no writer can still be using the intervals we swapped out
+      phaser.flipPhase();
+      for (Recorder r : recorders) {
+        Interval full = r.inactive;
+        for (int i = 0; i < full.latency.length; i++) {
+          longSummary[i].addSamples(full.latency[i]);
+          shortSummary[i].addSamples(full.latency[i]);
+        }
+        if (full.slippage.size() > 0) {
+          slippage.merge(full.slippage);
+        }
+        if (full.pacing.size() > 0) {
+          pacingError.merge(full.pacing);
+        }
+        full.reset();
+      }
+    } finally {
+      phaser.readerUnlock();
     }
-    System.out.println(s);
   }
 
-  private double meanBlocksPerSecond(Op op, double t) {
-    return shortAnalyzer[op.ordinal()].meanBlocksPerSecond(t);
+  /**
+   * Formats the standard one line segment report for the combination of several filers.
+   */
+  static String formatSegment(double elapsed, double t, List<? extends Filer> filers) {
+    LatencySummary[] trace = new LatencySummary[Op.values().length];
+    LatencySummary[] segment = new LatencySummary[Op.values().length];
+    for (Op op : Op.values()) {
+      trace[op.ordinal()] = new LatencySummary();
+      segment[op.ordinal()] = new LatencySummary();
+      for (Filer filer : filers) {
+        trace[op.ordinal()].merge(filer.summary(op));
+        segment[op.ordinal()].merge(filer.segmentSummary(op));
+      }
+    }
+    return formatSegment(elapsed, t, trace[Op.WRITE.ordinal()], segment[Op.WRITE.ordinal()],
+      trace[Op.READ.ordinal()], segment[Op.READ.ordinal()]);
+  }
+
+  /**
+   * Formats the standard one line segment report.  Sample counts and quantiles come from the
+   * per-trace summaries, throughput from the per-segment summaries.
+   */
+  static String formatSegment(double elapsed, double t, LatencySummary writes, LatencySummary segmentWrites,
+                              LatencySummary reads, LatencySummary segmentReads) {
+    String s = String.format("%10.3f %5d %5d ", elapsed, writes.size(), reads.size());
+
+    if (writes.size() > 100) {
+      s += String.format("%.3f %.3f %.3f %.3f %.3f %.3f",
+        segmentWrites.meanBlocksPerSecond(t), writes.quantiles(2), writes.quantiles(3), writes.quantiles(4), writes.quantiles(5), writes.quantiles(20));
+      if (reads.size() > 100) {
+        s += String.format(" %.3f %.3f %.3f %.3f %.3f %.3f",
+          segmentReads.meanBlocksPerSecond(t), reads.quantiles(2), reads.quantiles(3), reads.quantiles(4), reads.quantiles(5), reads.quantiles(20));
+      }
+    }
+    return s;
   }
 
   public double currentTime() {
-    throw new UnsupportedOperationException("default no can do");  //To change body of created methods use File | Settings | File Templates.
+    return unhandled("tell the time").currentTime();
   }
 
   public void sleep(double delay) throws InterruptedException {
-    throw new UnsupportedOperationException("default no can do");  //To change body of created methods use File | Settings | File Templates.
+    unhandled("sleep").sleep(delay);
   }
 
   public void reset(double t) {
-    for (TopTailAnalyzer analyzer : longAnalyzer) {
-      analyzer.reset(t);
+    phaser.readerLock();
+    try {
+      // samples recorded before the reset still belong to the current segment
+      harvest();
+      for (LatencySummary summary : longSummary) {
+        summary.reset(t);
+      }
+    } finally {
+      phaser.readerUnlock();
     }
   }
 
+  /**
+   * Records the latency of an operation.  This is safe to call from any number of threads
+   * at once and never takes a lock.
+   */
   public final void recordLatency(Op kind, double latency, double bytes) {
-    longAnalyzer[kind.ordinal()].add(latency, bytes);
-    shortAnalyzer[kind.ordinal()].add(latency, bytes);
+    final Recorder r = recorder.get();
+    final long phase = phaser.writerCriticalSectionEnter();
+    try {
+      r.active.latency[kind.ordinal()].add(latency, bytes);
+    } finally {
+      phaser.writerCriticalSectionExit(phase);
+    }
+    if (liveMetrics != null) {
+      liveMetrics.record(kind, latency, bytes);
+    }
   }
 
   public final double quantiles(Op kind, int nines) {
-    return longAnalyzer[kind.ordinal()].quantile(nines);
+    harvest();
+    return longSummary[kind.ordinal()].quantiles(nines);
+  }
+
+  /**
+   * Returns any quantile of the latencies seen since the last reset.
+   */
+  public final double quantile(Op kind, double q) {
+    harvest();
+    return longSummary[kind.ordinal()].quantile(q);
+  }
+
+  /**
+   * Returns any quantile of the latencies seen in the current segment.
+   */
+  public final double segmentQuantile(Op kind, double q) {
+    harvest();
+    return shortSummary[kind.ordinal()].quantile(q);
+  }
+
+  public final double minLatency(Op kind) {
+    harvest();
+    return longSummary[kind.ordinal()].min();
+  }
+
+  public final double maxLatency(Op kind) {
+    harvest();
+    return longSummary[kind.ordinal()].max();
   }
 
   public final double meanBytesPerSecond(Op kind, double t) {
-    return shortAnalyzer[kind.ordinal()].meanBytesPerSecond(t);
+    harvest();
+    return shortSummary[kind.ordinal()].meanBytesPerSecond(t);
   }
 
 
 
   public final double meanLatency(Op kind) {
-    return longAnalyzer[kind.ordinal()].meanLatency();
+    harvest();
+    return longSummary[kind.ordinal()].meanLatency();
   }
 
   public final long latencySamples(Op kind) {
-    return longAnalyzer[kind.ordinal()].size();
+    harvest();
+    return longSummary[kind.ordinal()].size();
+  }
+
+  /**
+   * Returns the live summary of operations of one kind since the last reset.  Merge it
+   * into a new LatencySummary to aggregate several filers.
+   */
+  public LatencySummary summary(Op kind) {
+    harvest();
+    return longSummary[kind.ordinal()];
+  }
+
+  /**
+   * Returns the live summary of operations of one kind in the current segment.
+   */
+  public LatencySummary segmentSummary(Op kind) {
+    harvest();
+    return shortSummary[kind.ordinal()];
+  }
+
+  /**
+   * What one thread has recorded since the last harvest.
+   */
+  private static class Interval {
+    private final LatencySummary[] latency = new LatencySummary[Op.values().length];
+    private final LatencyHistogram slippage = new LatencyHistogram();
+    private final LatencyHistogram pacing = new LatencyHistogram();
+
+    private Interval() {
+      for (int i = 0; i < latency.length; i++) {
+        latency[i] = new LatencySummary();
+      }
+    }
+
+    private void reset() {
+      for (LatencySummary summary : latency) {
+        if (summary.size() > 0) {
+          summary.reset(0);
+        }
+      }
+      slippage.reset();
+      pacing.reset();
+    }
+  }
+
+  /**
+   * One thread's pair of intervals.  The thread records into the active one while the
+   * harvester empties the other.
+   */
+  private static class Recorder {
+    private volatile Interval active = new Interval();
+    private Interval inactive = new Interval();
   }
 }
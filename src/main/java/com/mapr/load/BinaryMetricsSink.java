@@ -0,0 +1,78 @@
+package com.mapr.load;
+
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes metrics compactly.  A header with a magic number, a version and the column names is
+ * followed by one record of doubles per segment.  Missing values are NaN.
+ */
+public class BinaryMetricsSink implements MetricsSink {
+  private static final int MAGIC = 0x4c4d5452;
+  private static final int VERSION = 1;
+
+  private final DataOutputStream out;
+  private boolean headerWritten = false;
+
+  public BinaryMetricsSink(DataOutputStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public void write(SegmentMetrics metrics) throws IOException {
+    List<String> columns = SegmentMetrics.columns();
+    if (!headerWritten) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(columns.size());
+      for (String column : columns) {
+        out.writeUTF(column);
+      }
+      headerWritten = true;
+    }
+    for (int i = 0; i < columns.size(); i++) {
+      out.writeDouble(metrics.get(i));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+  /**
+   * Reads the header of a metrics file and returns the number of columns in each record.
+   */
+  public static int readHeader(DataInput in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a binary metrics file");
+    }
+    if (in.readInt() != VERSION) {
+      throw new IOException("Unsupported metrics file version");
+    }
+    final int n = in.readInt();
+    for (int i = 0; i < n; i++) {
+      in.readUTF();
+    }
+    return n;
+  }
+
+  /**
+   * Reads one record, or returns null at the end of the file.
+   */
+  public static double[] readRecord(DataInput in, int columns) throws IOException {
+    double[] r = new double[columns];
+    try {
+      r[0] = in.readDouble();
+    } catch (EOFException e) {
+      return null;
+    }
+    for (int i = 1; i < columns; i++) {
+      r[i] = in.readDouble();
+    }
+    return r;
+  }
+}
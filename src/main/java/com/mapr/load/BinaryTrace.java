@@ -0,0 +1,172 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A trace stored in a compact binary form that is memory mapped rather than parsed.
+ *
+ * The file has a header of three ints (magic number, version and number of segments) followed
+ * by three arrays of doubles holding the read rates, the write rates and the durations of all
+ * segments.  A trace is only mapped once per process so all generator threads replaying the
+ * same file share one read-only segment table.  A file that is rewritten is mapped afresh.
+ *
+ * Use main() or convert() to turn a TSV trace into this format.
+ */
+public class BinaryTrace extends AbstractList<Generator.LoadSegment> {
+  private static final int MAGIC = 0x4c545243;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 12;
+
+  private static final ConcurrentMap<String, BinaryTrace> openTraces = new ConcurrentHashMap<String, BinaryTrace>();
+
+  private final ByteBuffer data;
+  private final int size;
+
+  private BinaryTrace(ByteBuffer data, int size) {
+    this.data = data;
+    this.size = size;
+  }
+
+  /**
+   * Converts trace files from the TSV format to the binary format.
+   *
+   * Usage: BinaryTrace input.tsv output.bin
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.out.printf("Usage: BinaryTrace input.tsv output.bin\n");
+      System.exit(1);
+    }
+    convert(new File(args[0]), new File(args[1]));
+  }
+
+  /**
+   * Reads a TSV trace file and writes it in binary form.
+   */
+  public static void convert(File tsv, File output) throws IOException {
+    write(Generator.readTraceFile(tsv), output);
+  }
+
+  /**
+   * Writes a list of segments in binary form.
+   */
+  public static void write(List<Generator.LoadSegment> trace, File output) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(trace.size());
+      for (Generator.LoadSegment segment : trace) {
+        out.writeDouble(segment.getReadRate());
+      }
+      for (Generator.LoadSegment segment : trace) {
+        out.writeDouble(segment.getWriteRate());
+      }
+      for (Generator.LoadSegment segment : trace) {
+        out.writeDouble(segment.getSegmentDuration());
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Tells whether a file looks like a binary trace.
+   */
+  public static boolean isBinary(File f) throws IOException {
+    if (f.length() < HEADER_SIZE) {
+      return false;
+    }
+    DataInputStream in = new DataInputStream(new FileInputStream(f));
+    try {
+      return in.readInt() == MAGIC;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Maps a binary trace file.  Opening the same file again returns the same shared trace unless
+   * the file's length or modification time has changed since.
+   *
+   * @param f  The file to open.
+   * @return A read-only list of segments backed by the mapped file.
+   * @throws IOException If the file can't be read or is not a valid binary trace.
+   */
+  public static BinaryTrace open(File f) throws IOException {
+    // a rewritten file gets a new key, so a stale mapping is never handed out
+    final String key = f.getCanonicalPath() + ":" + f.length() + ":" + f.lastModified();
+    BinaryTrace r = openTraces.get(key);
+    if (r == null) {
+      r = map(f);
+      BinaryTrace previous = openTraces.putIfAbsent(key, r);
+      if (previous != null) {
+        r = previous;
+      }
+    }
+    return r;
+  }
+
+  private static BinaryTrace map(File f) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(f, "r");
+    try {
+      ByteBuffer data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+        throw new IOException(String.format("%s is not a binary trace", f));
+      }
+      if (data.getInt(4) != VERSION) {
+        throw new IOException(String.format("%s has unsupported version %d", f, data.getInt(4)));
+      }
+      final int size = data.getInt(8);
+      if (data.limit() != HEADER_SIZE + 3L * 8 * size) {
+        throw new IOException(String.format("%s is truncated", f));
+      }
+      return new BinaryTrace(data, size);
+    } finally {
+      // the mapping stays valid after the file is closed
+      raf.close();
+    }
+  }
+
+  public double getReadRate(int i) {
+    return data.getDouble(offset(0, i));
+  }
+
+  public double getWriteRate(int i) {
+    return data.getDouble(offset(1, i));
+  }
+
+  public double getSegmentDuration(int i) {
+    return data.getDouble(offset(2, i));
+  }
+
+  private int offset(int column, int i) {
+    Preconditions.checkElementIndex(i, size);
+    return HEADER_SIZE + 8 * (column * size + i);
+  }
+
+  @Override
+  public Generator.LoadSegment get(int i) {
+    return new Generator.LoadSegment(getReadRate(i), getWriteRate(i), getSegmentDuration(i));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,244 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.mapr.generate.FastRandom;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Splits one stream of operations across several child filers so that a single run can mix
+ * workloads, such as a sequential log, a skewed data file and uniform reads.  Each read and
+ * each write goes to one child picked at random in proportion to the child's weight for that
+ * kind of operation, so a child with a read weight of zero never sees reads.
+ *
+ * Children keep their own statistics but the composite does their reporting.  When printing,
+ * each segment gets a line per child, prefixed with the child's name, followed by the roll-up
+ * of all children.  A metrics sink only gets the roll-up.  Time is kept by the first child.
+ */
+public class CompositeFiler implements Filer {
+  private final List<Child> children = Lists.newArrayList();
+  private final Random rand;
+
+  private double t0 = System.nanoTime() * 1e-9;
+
+  // where rolled up segment metrics go, null to print them
+  private MetricsSink metricsSink;
+
+  public CompositeFiler() {
+    this(new FastRandom());
+  }
+
+  public CompositeFiler(Random rand) {
+    this.rand = rand;
+  }
+
+  /**
+   * Adds a child.  Weights are relative to those of the other children.
+   *
+   * @param name         What to call the child, see child().
+   * @param filer        The child.
+   * @param readWeight   Share of reads the child gets.
+   * @param writeWeight  Share of writes the child gets.
+   */
+  public void add(String name, Filer filer, double readWeight, double writeWeight) {
+    Preconditions.checkArgument(readWeight >= 0 && writeWeight >= 0, "Weights can't be negative");
+    Preconditions.checkArgument(readWeight + writeWeight > 0, "Child %s would never get any operations", name);
+    for (Child child : children) {
+      Preconditions.checkArgument(!child.name.equals(name), "Already have a child called %s", name);
+    }
+    if (filer instanceof BaseFiler) {
+      // otherwise its lines would be printed without saying which child they are from
+      ((BaseFiler) filer).setReporting(false);
+    }
+    children.add(new Child(name, filer, readWeight, writeWeight));
+  }
+
+  /**
+   * Returns the child with a name.
+   */
+  public Filer child(String name) {
+    for (Child child : children) {
+      if (child.name.equals(name)) {
+        return child.filer;
+      }
+    }
+    throw new IllegalArgumentException("No child called " + name);
+  }
+
+  /**
+   * Sends the rolled up metrics of each segment to a sink instead of printing them.
+   */
+  public void setMetricsSink(MetricsSink metricsSink) {
+    this.metricsSink = metricsSink;
+  }
+
+  @Override
+  public void read(double t, int blockSize) throws IOException {
+    pick(Op.READ).read(t, blockSize);
+  }
+
+  @Override
+  public void write(double t, int blockSize) throws IOException {
+    pick(Op.WRITE).write(t, blockSize);
+  }
+
+  private Filer pick(Op kind) {
+    double total = 0;
+    for (Child child : children) {
+      total += child.weight[kind.ordinal()];
+    }
+    Preconditions.checkState(total > 0, "No child of this filer accepts operations of kind %s", kind);
+    double u = rand.nextDouble() * total;
+    Child last = null;
+    for (Child child : children) {
+      final double w = child.weight[kind.ordinal()];
+      if (w > 0) {
+        if (u < w) {
+          return child.filer;
+        }
+        u -= w;
+        last = child;
+      }
+    }
+    // only reached through rounding
+    return last.filer;
+  }
+
+  private List<Filer> filers() {
+    List<Filer> r = Lists.newArrayList();
+    for (Child child : children) {
+      r.add(child.filer);
+    }
+    return r;
+  }
+
+  /**
+   * Starts a segment on every child.  Fails if some kind of operation has nowhere to go, so that
+   * a mix that can't handle its trace is caught before the run rather than part way through.
+   */
+  @Override
+  public void segmentStart(double t) {
+    for (Op kind : Op.values()) {
+      boolean accepted = false;
+      for (Child child : children) {
+        accepted |= child.weight[kind.ordinal()] > 0;
+      }
+      Preconditions.checkState(accepted, "No child of this filer accepts operations of kind %s", kind);
+    }
+    for (Child child : children) {
+      child.filer.segmentStart(t);
+    }
+  }
+
+  @Override
+  public void segmentEnd(double t) {
+    for (Child child : children) {
+      child.filer.segmentEnd(t);
+    }
+    final double elapsed = System.nanoTime() * 1e-9 - t0;
+    if (metricsSink != null) {
+      BaseFiler.writeMetrics(metricsSink, SegmentMetrics.merge(elapsed, t, filers()));
+      return;
+    }
+    String pacing = RealTimeFiler.formatPacing(filers());
+    if (pacing != null) {
+      System.out.println(pacing);
+    }
+    for (Child child : children) {
+      List<Filer> one = Collections.singletonList(child.filer);
+      SegmentMetrics.Counts counts = SegmentMetrics.Counts.merge(one);
+      if (counts != null) {
+        System.out.printf("%s %s\n", child.name, counts.format());
+      }
+      System.out.printf("%s %s\n", child.name, BaseFiler.formatSegment(elapsed, t, one));
+    }
+    System.out.printf("total %s\n", BaseFiler.formatSegment(elapsed, t, filers()));
+  }
+
+  @Override
+  public double currentTime() {
+    return clock().currentTime();
+  }
+
+  @Override
+  public void sleep(double delay) throws InterruptedException {
+    clock().sleep(delay);
+  }
+
+  private Filer clock() {
+    Preconditions.checkState(children.size() > 0, "Composite filer has no children");
+    return children.get(0).filer;
+  }
+
+  @Override
+  public void recordLatency(Op kind, double latency, double bytes) {
+    throw new UnsupportedOperationException("Latency is recorded by the child filers");
+  }
+
+  @Override
+  public double quantiles(Op kind, int nines) {
+    return summary(kind).quantiles(nines);
+  }
+
+  @Override
+  public double quantile(Op kind, double q) {
+    return summary(kind).quantile(q);
+  }
+
+  @Override
+  public long latencySamples(Op kind) {
+    long n = 0;
+    for (Child child : children) {
+      n += child.filer.latencySamples(kind);
+    }
+    return n;
+  }
+
+  @Override
+  public void reset(double t) {
+    for (Child child : children) {
+      child.filer.reset(t);
+    }
+  }
+
+  /**
+   * Returns a merged summary of all children since their last reset.
+   */
+  @Override
+  public LatencySummary summary(Op kind) {
+    LatencySummary r = new LatencySummary();
+    for (Child child : children) {
+      r.merge(child.filer.summary(kind));
+    }
+    return r;
+  }
+
+  /**
+   * Returns a merged summary of all children for the current segment.
+   */
+  @Override
+  public LatencySummary segmentSummary(Op kind) {
+    LatencySummary r = new LatencySummary();
+    for (Child child : children) {
+      r.merge(child.filer.segmentSummary(kind));
+    }
+    return r;
+  }
+
+  private static class Child {
+    private final String name;
+    private final Filer filer;
+    private final double[] weight = new double[Op.values().length];
+
+    private Child(String name, Filer filer, double readWeight, double writeWeight) {
+      this.name = name;
+      this.filer = filer;
+      weight[Op.READ.ordinal()] = readWeight;
+      weight[Op.WRITE.ordinal()] = writeWeight;
+    }
+  }
+}
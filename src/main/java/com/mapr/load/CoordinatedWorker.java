@@ -0,0 +1,215 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * The worker side of a coordinated run.  A worker connects to a Coordinator, gets its share of
+ * the load and then runs it against a local filer, waiting for the other workers at the start
+ * of every segment and sending its summaries to the coordinator at the end.
+ */
+public class CoordinatedWorker {
+  private final Filer filer;
+  private final String name;
+
+  private int index = -1;
+
+  private double timeout = Coordinator.DEFAULT_TIMEOUT;
+
+  /**
+   * @param filer  The filer that does the I/O for this worker.
+   * @param name   How the coordinator refers to this worker in messages.
+   */
+  public CoordinatedWorker(Filer filer, String name) {
+    this.filer = filer;
+    this.name = name;
+  }
+
+  /**
+   * Connects to a coordinator and runs whatever it asks for using a RandomFiler.
+   *
+   * Usage: CoordinatedWorker host port
+   *
+   * -Dfile=name sets the file to do I/O on, the default is named after the host and process.
+   * -Dtimeout=s sets how long to wait for the coordinator beyond what the trace requires.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length != 2) {
+      System.out.printf("Usage: CoordinatedWorker host port\n");
+      System.exit(1);
+    }
+    String name = InetAddress.getLocalHost().getHostName() + "-" + ManagementFactory.getRuntimeMXBean().getName().replaceAll("@.*", "");
+    File file = new File(System.getProperty("file", name));
+    file.deleteOnExit();
+
+    CoordinatedWorker worker = new CoordinatedWorker(RandomFiler.create(file, 1000000, 1, 1), name);
+    worker.setTimeout(Double.parseDouble(System.getProperty("timeout", String.valueOf(Coordinator.DEFAULT_TIMEOUT))));
+    worker.run(args[0], Integer.parseInt(args[1]));
+  }
+
+  /**
+   * Sets how long to wait for the coordinator to start the run, and how much longer than the
+   * longest segment to wait for it once the run has started.
+   */
+  public void setTimeout(double seconds) {
+    Preconditions.checkArgument(seconds > 0, "Timeout must be positive, got %s", seconds);
+    this.timeout = seconds;
+  }
+
+  /**
+   * Connects to a coordinator and runs until the trace is complete.
+   */
+  public void run(String host, int port) throws IOException, InterruptedException {
+    Socket socket = new Socket(host, port);
+    try {
+      run(socket);
+    } finally {
+      socket.close();
+    }
+  }
+
+  private void run(Socket socket) throws IOException, InterruptedException {
+    socket.setTcpNoDelay(true);
+    socket.setSoTimeout(Coordinator.millis(timeout));
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+    out.writeByte(Coordinator.HELLO);
+    out.writeUTF(name);
+    out.flush();
+
+    if (in.readUnsignedByte() != Coordinator.CONFIG) {
+      throw new IOException("Expected configuration from coordinator");
+    }
+    index = in.readInt();
+    in.readInt();
+    Generator g = new Generator(in.readLong());
+    final double scale = in.readDouble();
+    g.setBlockSize(in.readInt());
+    final int n = in.readInt();
+    List<Generator.LoadSegment> trace = Lists.newArrayListWithCapacity(n);
+    double longest = 0;
+    for (int i = 0; i < n; i++) {
+      Generator.LoadSegment segment = new Generator.LoadSegment(in.readDouble(), in.readDouble(), in.readDouble());
+      longest = Math.max(longest, segment.getSegmentDuration());
+      trace.add(segment);
+    }
+    g.addTrace(trace);
+    // the other workers can take a whole segment to be ready for the next
+    socket.setSoTimeout(Coordinator.millis(longest + timeout));
+
+    filer.reset(filer.currentTime());
+    try {
+      g.generate(0, Double.POSITIVE_INFINITY, scale, new RemoteSyncedFiler(filer, in, out));
+      out.writeByte(Coordinator.DONE);
+      out.flush();
+    } catch (ConnectionException e) {
+      // the coordinator has gone, no point telling it anything
+      throw e.getCause();
+    } catch (IOException e) {
+      fail(out, e);
+      throw e;
+    } catch (RuntimeException e) {
+      fail(out, e);
+      throw e;
+    }
+  }
+
+  private static void fail(DataOutputStream out, Exception e) {
+    try {
+      out.writeByte(Coordinator.FAILED);
+      out.writeUTF(String.valueOf(e.getMessage()));
+      out.flush();
+    } catch (IOException ignored) {
+      // the original failure is more interesting
+    }
+  }
+
+  /**
+   * Returns which worker this is, or -1 before the coordinator has said.
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * Thrown from segment boundaries, which can't throw IOException, when the coordinator can't
+   * be reached.
+   */
+  private static class ConnectionException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private ConnectionException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+
+  /**
+   * Waits for the coordinator at the start of each segment and reports to it at the end.  As
+   * with ParallelGenerator, the merged report replaces the local one, but the local filer still
+   * ends its segment.
+   */
+  private static class RemoteSyncedFiler extends ForwardingFiler {
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private RemoteSyncedFiler(Filer delegate, DataInputStream in, DataOutputStream out) {
+      super(delegate);
+      if (delegate instanceof BaseFiler) {
+        ((BaseFiler) delegate).setReporting(false);
+      }
+      this.in = in;
+      this.out = out;
+    }
+
+    @Override
+    public void segmentStart(double t) {
+      try {
+        out.writeByte(Coordinator.READY);
+        out.flush();
+        if (in.readUnsignedByte() != Coordinator.GO) {
+          throw new IOException("Expected go-ahead from coordinator");
+        }
+      } catch (IOException e) {
+        throw new ConnectionException(e);
+      }
+      delegate.segmentStart(t);
+    }
+
+    @Override
+    public void segmentEnd(double t) {
+      delegate.segmentEnd(t);
+      try {
+        out.writeByte(Coordinator.SEGMENT);
+        for (Op op : Op.values()) {
+          delegate.segmentSummary(op).write(out, t);
+          delegate.summary(op).write(out, t);
+        }
+        SegmentMetrics.Counts counts = delegate instanceof BaseFiler ? ((BaseFiler) delegate).segmentCounts() : null;
+        out.writeBoolean(counts != null);
+        if (counts != null) {
+          counts.write(out);
+        }
+        out.flush();
+      } catch (IOException e) {
+        throw new ConnectionException(e);
+      }
+    }
+  }
+}
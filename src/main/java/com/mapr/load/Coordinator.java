@@ -0,0 +1,312 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.mapr.generate.FastRandom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs one trace across several worker processes, possibly on different machines.  Workers
+ * (see CoordinatedWorker) connect over TCP and each is handed the trace, a share of the load
+ * and its own random seed.  Every segment starts when all workers are ready for it and at the
+ * end of each segment the workers send their latency summaries so that a single merged report
+ * can be printed.
+ *
+ * The protocol is a simple lockstep exchange of DataOutput messages:
+ *
+ * worker: HELLO name
+ * coordinator: CONFIG index count seed scale blockSize segments...
+ * then for each segment
+ *   worker: READY, coordinator (when all are ready): GO
+ *   worker: SEGMENT summaries... hasCounts [counts]
+ * and finally worker: DONE (or FAILED message at any point).
+ *
+ * Workers don't share a clock so summary times are sent relative to the end of the segment.
+ *
+ * Neither side waits forever.  Workers must all connect within a timeout, and after that each
+ * message must arrive within the longest segment of the trace plus the same timeout.
+ */
+public class Coordinator {
+  static final int HELLO = 1;
+  static final int CONFIG = 2;
+  static final int READY = 3;
+  static final int GO = 4;
+  static final int SEGMENT = 5;
+  static final int DONE = 6;
+  static final int FAILED = 7;
+
+  static final double DEFAULT_TIMEOUT = 60;
+
+  private final ServerSocket server;
+  private final int workerCount;
+  private final Random rand = new FastRandom();
+
+  private final LatencySummary[] total = new LatencySummary[Filer.Op.values().length];
+
+  private double t0 = System.nanoTime() * 1e-9;
+
+  private double timeout = DEFAULT_TIMEOUT;
+
+  // where merged segment metrics go, null to print them
+  private MetricsSink metricsSink;
+
+  /**
+   * @param server       Where workers connect.
+   * @param workerCount  How many workers to wait for before starting.
+   */
+  public Coordinator(ServerSocket server, int workerCount) {
+    Preconditions.checkArgument(workerCount > 0, "Need at least one worker");
+    this.server = server;
+    this.workerCount = workerCount;
+    for (int i = 0; i < total.length; i++) {
+      total[i] = new LatencySummary();
+    }
+  }
+
+  /**
+   * Runs a coordinator and prints one merged line per segment.
+   *
+   * Usage: Coordinator port workers trace ...
+   *
+   * -Dscale=x sets the total rate multiplier, which is shared among the workers.  -Dmetrics=file
+   * writes segment metrics to a file as Load does.  -Dtimeout=s sets how long to wait for
+   * workers beyond what the trace requires.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.out.printf("Usage: Coordinator port workers trace ...\n");
+      System.exit(1);
+    }
+    Coordinator c = new Coordinator(new ServerSocket(Integer.parseInt(args[0])), Integer.parseInt(args[1]));
+    List<Generator.LoadSegment> trace = Lists.newArrayList();
+    for (int i = 2; i < args.length; i++) {
+      trace.addAll(Generator.openTrace(new File(args[i])));
+    }
+    double scale = Double.parseDouble(System.getProperty("scale", "1"));
+    c.setTimeout(Double.parseDouble(System.getProperty("timeout", String.valueOf(DEFAULT_TIMEOUT))));
+    String metricsFile = System.getProperty("metrics");
+    if (metricsFile != null) {
+      c.setMetricsSink(MetricsSinks.open(new File(metricsFile)));
+    }
+    try {
+      c.run(trace, scale, 4096);
+    } finally {
+      c.server.close();
+      if (c.metricsSink != null) {
+        c.metricsSink.close();
+      }
+    }
+  }
+
+  /**
+   * Waits for all workers to connect and then runs a trace on them.
+   *
+   * @param trace      The segments to run.
+   * @param scale      Rate multiplier for the combined load.  Each worker gets scale / N.
+   * @param blockSize  The size of each read or write.
+   * @throws IOException If a worker fails or the workers get out of step.
+   */
+  public void run(List<Generator.LoadSegment> trace, double scale, int blockSize) throws IOException {
+    for (LatencySummary summary : total) {
+      summary.reset(0);
+    }
+    // a worker can be silent for the length of a segment while it runs it
+    double longest = 0;
+    for (Generator.LoadSegment segment : trace) {
+      longest = Math.max(longest, segment.getSegmentDuration());
+    }
+    final int readTimeout = millis(longest + timeout);
+
+    List<Connection> workers = Lists.newArrayList();
+    try {
+      final long deadline = System.nanoTime() + (long) (timeout * 1e9);
+      while (workers.size() < workerCount) {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new IOException(String.format("Only %d of %d workers connected within %.0f s", workers.size(), workerCount, timeout));
+        }
+        server.setSoTimeout((int) Math.max(1, remaining / 1000000));
+        final Socket socket;
+        try {
+          socket = server.accept();
+        } catch (SocketTimeoutException e) {
+          continue;
+        }
+        Connection c = new Connection(socket);
+        workers.add(c);
+        c.socket.setSoTimeout(millis(timeout));
+        c.expect(HELLO);
+        c.name = c.in.readUTF();
+        c.socket.setSoTimeout(readTimeout);
+      }
+
+      for (int i = 0; i < workers.size(); i++) {
+        DataOutputStream out = workers.get(i).out;
+        out.writeByte(CONFIG);
+        out.writeInt(i);
+        out.writeInt(workerCount);
+        out.writeLong(rand.nextLong());
+        out.writeDouble(scale / workerCount);
+        out.writeInt(blockSize);
+        out.writeInt(trace.size());
+        for (Generator.LoadSegment segment : trace) {
+          out.writeDouble(segment.getReadRate());
+          out.writeDouble(segment.getWriteRate());
+          out.writeDouble(segment.getSegmentDuration());
+        }
+        out.flush();
+      }
+
+      while (true) {
+        int kind = -1;
+        LatencySummary[] segment = newSummaries();
+        LatencySummary[] cumulative = newSummaries();
+        SegmentMetrics.Counts counts = null;
+        for (Connection c : workers) {
+          int k = c.in.readUnsignedByte();
+          if (k == FAILED) {
+            throw new IOException(String.format("Worker %s failed: %s", c.name, c.in.readUTF()));
+          } else if (kind != -1 && k != kind) {
+            throw new IOException("Workers are out of step");
+          }
+          kind = k;
+          if (k == SEGMENT) {
+            c.readSummaries(segment, cumulative);
+            if (c.in.readBoolean()) {
+              SegmentMetrics.Counts workerCounts = SegmentMetrics.Counts.read(c.in);
+              if (counts == null) {
+                counts = workerCounts;
+              } else {
+                counts.add(workerCounts);
+              }
+            }
+          }
+        }
+
+        if (kind == READY) {
+          for (Connection c : workers) {
+            c.out.writeByte(GO);
+            c.out.flush();
+          }
+        } else if (kind == SEGMENT) {
+          report(cumulative, segment, counts);
+          for (int i = 0; i < total.length; i++) {
+            total[i].reset(0);
+            total[i].merge(cumulative[i]);
+          }
+        } else if (kind == DONE) {
+          break;
+        } else {
+          throw new IOException("Unexpected message " + kind);
+        }
+      }
+    } finally {
+      for (Connection c : workers) {
+        c.socket.close();
+      }
+    }
+  }
+
+  /**
+   * Sets how long to wait for all workers to connect, and how much longer than the longest
+   * segment to wait for any message from a worker.
+   */
+  public void setTimeout(double seconds) {
+    Preconditions.checkArgument(seconds > 0, "Timeout must be positive, got %s", seconds);
+    this.timeout = seconds;
+  }
+
+  static int millis(double seconds) {
+    return (int) Math.min(Integer.MAX_VALUE, Math.ceil(seconds * 1000));
+  }
+
+  /**
+   * Sends the merged metrics of each segment to a sink instead of printing them.  Slippage and
+   * pacing aren't collected from workers so those columns are empty.
+   */
+  public void setMetricsSink(MetricsSink metricsSink) {
+    this.metricsSink = metricsSink;
+  }
+
+  private void report(LatencySummary[] cumulative, LatencySummary[] segment, SegmentMetrics.Counts counts) throws IOException {
+    final double elapsed = System.nanoTime() * 1e-9 - t0;
+    final int w = Filer.Op.WRITE.ordinal();
+    final int r = Filer.Op.READ.ordinal();
+    if (metricsSink != null) {
+      SegmentMetrics m = new SegmentMetrics(elapsed, 0, cumulative[w], segment[w], cumulative[r], segment[r], null);
+      if (counts != null) {
+        counts.apply(m);
+      }
+      metricsSink.write(m);
+    } else {
+      if (counts != null) {
+        System.out.println(counts.format());
+      }
+      System.out.println(BaseFiler.formatSegment(elapsed, 0, cumulative[w], segment[w], cumulative[r], segment[r]));
+    }
+  }
+
+  /**
+   * Returns the merged summary of all workers over the last run.
+   */
+  public LatencySummary summary(Filer.Op kind) {
+    return total[kind.ordinal()];
+  }
+
+  private static LatencySummary[] newSummaries() {
+    LatencySummary[] r = new LatencySummary[Filer.Op.values().length];
+    for (int i = 0; i < r.length; i++) {
+      r[i] = new LatencySummary();
+      r[i].reset(0);
+    }
+    return r;
+  }
+
+  private static class Connection {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private String name;
+
+    // scratch space for reading summaries
+    private final LatencySummary scratch = new LatencySummary();
+
+    private Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      socket.setTcpNoDelay(true);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    private void expect(int kind) throws IOException {
+      int k = in.readUnsignedByte();
+      if (k != kind) {
+        throw new IOException(String.format("Expected message %d but got %d", kind, k));
+      }
+    }
+
+    /**
+     * Reads the segment and trace summaries for each kind of operation and merges them in.
+     * Times are relative to the end of the segment which is taken as time 0.
+     */
+    private void readSummaries(LatencySummary[] segment, LatencySummary[] trace) throws IOException {
+      for (int i = 0; i < segment.length; i++) {
+        scratch.readFields(in, 0);
+        segment[i].merge(scratch);
+        scratch.readFields(in, 0);
+        trace[i].merge(scratch);
+      }
+    }
+  }
+}
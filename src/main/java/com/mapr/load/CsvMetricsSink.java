@@ -0,0 +1,49 @@
+package com.mapr.load;
+
+import com.google.common.base.Joiner;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes one line of comma separated values per segment after a header line with the column
+ * names.  Missing values are left empty.
+ */
+public class CsvMetricsSink implements MetricsSink {
+  private final Writer out;
+  private boolean headerWritten = false;
+
+  public CsvMetricsSink(Writer out) {
+    this.out = out;
+  }
+
+  @Override
+  public void write(SegmentMetrics metrics) throws IOException {
+    List<String> columns = SegmentMetrics.columns();
+    if (!headerWritten) {
+      out.write(Joiner.on(',').join(columns));
+      out.write('\n');
+      headerWritten = true;
+    }
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < columns.size(); i++) {
+      if (i > 0) {
+        line.append(',');
+      }
+      final double v = metrics.get(i);
+      if (SegmentMetrics.isCount(i)) {
+        line.append((long) v);
+      } else if (!Double.isNaN(v) && !Double.isInfinite(v)) {
+        line.append(v);
+      }
+    }
+    line.append('\n');
+    out.write(line.toString());
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,154 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.FileStore;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Unbuffered I/O that bypasses the page cache so that results reflect the device rather than
+ * how much memory the host has.  Files are opened with ExtendedOpenOption.DIRECT, which is
+ * O_DIRECT on Linux, and all transfers use direct buffers aligned to the file system block size.
+ *
+ * DIRECT and aligned buffers only exist in JDK 10 and later, so they are found by reflection.
+ * Anything that can't work fails up front with an explanation rather than silently falling
+ * back to buffered I/O.
+ */
+public class DirectIo {
+  private static final int DEFAULT_ALIGNMENT = 4096;
+
+  private final FileChannel channel;
+  private final int alignment;
+  private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+  private DirectIo(FileChannel channel, int alignment) {
+    this.channel = channel;
+    this.alignment = alignment;
+  }
+
+  /**
+   * Opens a file for unbuffered reading and writing, creating it if need be.
+   *
+   * @throws IOException  If the JDK or the file system doesn't support direct I/O.
+   */
+  public static DirectIo open(File f) throws IOException {
+    final OpenOption direct = directOption();
+    // the file has to exist before we can ask which file store it is on
+    FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE).close();
+    final int alignment = alignment(f);
+
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, direct);
+    } catch (UnsupportedOperationException e) {
+      throw new IOException("The file system holding " + f + " does not support direct I/O", e);
+    } catch (IOException e) {
+      throw new IOException("Could not open " + f + " for direct I/O, the file system may not support it", e);
+    }
+    return new DirectIo(channel, alignment);
+  }
+
+  private static OpenOption directOption() throws IOException {
+    try {
+      Class<?> options = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+      return (OpenOption) options.getField("DIRECT").get(null);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Direct I/O needs a JDK with com.sun.nio.file.ExtendedOpenOption", e);
+    } catch (NoSuchFieldException e) {
+      throw new IOException("Direct I/O needs JDK 10 or later, this is " + System.getProperty("java.version"), e);
+    } catch (IllegalAccessException e) {
+      throw new IOException("ExtendedOpenOption.DIRECT is not accessible", e);
+    }
+  }
+
+  /**
+   * Returns the block size of the file system holding a file.  Buffers, offsets and transfer
+   * sizes all have to be multiples of this for direct I/O.
+   */
+  static int alignment(File f) throws IOException {
+    FileStore store = Files.getFileStore(f.toPath());
+    try {
+      Method blockSize = FileStore.class.getMethod("getBlockSize");
+      return (int) (long) (Long) blockSize.invoke(store);
+    } catch (NoSuchMethodException e) {
+      return DEFAULT_ALIGNMENT;
+    } catch (IllegalAccessException e) {
+      return DEFAULT_ALIGNMENT;
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof UnsupportedOperationException) {
+        return DEFAULT_ALIGNMENT;
+      }
+      throw new IOException("Can't find the block size of the file system holding " + f, e.getCause());
+    }
+  }
+
+  public FileChannel getChannel() {
+    return channel;
+  }
+
+  public int getAlignment() {
+    return alignment;
+  }
+
+  /**
+   * Checks that a block size can be used for direct transfers.
+   */
+  public void checkBlockSize(int blockSize) {
+    Preconditions.checkArgument(blockSize > 0 && blockSize % alignment == 0,
+      "Direct I/O needs a block size that is a multiple of %s, got %s", alignment, blockSize);
+  }
+
+  /**
+   * Returns an aligned direct buffer of exactly blockSize bytes, reusing a released one if
+   * there is one of the right size.  Buffers should be given back with release().
+   */
+  public ByteBuffer acquire(int blockSize) {
+    checkBlockSize(blockSize);
+    ByteBuffer buf = pool.poll();
+    while (buf != null && buf.capacity() != blockSize) {
+      // block sizes rarely change, so just let the odd one go
+      buf = pool.poll();
+    }
+    if (buf == null) {
+      buf = allocateAligned(blockSize, alignment);
+    }
+    buf.clear();
+    return buf;
+  }
+
+  public void release(ByteBuffer buf) {
+    pool.add(buf);
+  }
+
+  /**
+   * Allocates a direct buffer whose first byte is on an alignment boundary.
+   */
+  static ByteBuffer allocateAligned(int size, int alignment) {
+    ByteBuffer raw = ByteBuffer.allocateDirect(size + alignment);
+    try {
+      Method alignedSlice = ByteBuffer.class.getMethod("alignedSlice", int.class);
+      ByteBuffer aligned = (ByteBuffer) alignedSlice.invoke(raw, alignment);
+      aligned.limit(size);
+      return aligned.slice();
+    } catch (NoSuchMethodException e) {
+      throw new UnsupportedOperationException("Aligned buffers need JDK 9 or later", e);
+    } catch (IllegalAccessException e) {
+      throw new UnsupportedOperationException("ByteBuffer.alignedSlice() is not accessible", e);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException("Could not align buffer", e.getCause());
+    }
+  }
+
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -20,9 +20,15 @@ public interface Filer {
 
   double quantiles(Op kind, int nines);
 
+  double quantile(Op kind, double q);
+
   long latencySamples(Op kind);
 
   void reset(double t);
 
+  LatencySummary summary(Op kind);
+
+  LatencySummary segmentSummary(Op kind);
+
   public enum Op {READ, WRITE}
 }
@@ -0,0 +1,80 @@
+package com.mapr.load;
+
+import java.io.IOException;
+
+/**
+ * Passes every call through to another filer.  Subclasses override the calls they want to
+ * intercept.
+ */
+class ForwardingFiler implements Filer {
+  protected final Filer delegate;
+
+  ForwardingFiler(Filer delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void read(double t, int blockSize) throws IOException {
+    delegate.read(t, blockSize);
+  }
+
+  @Override
+  public void write(double t, int blockSize) throws IOException {
+    delegate.write(t, blockSize);
+  }
+
+  @Override
+  public void segmentStart(double t) {
+    delegate.segmentStart(t);
+  }
+
+  @Override
+  public void segmentEnd(double t) {
+    delegate.segmentEnd(t);
+  }
+
+  @Override
+  public double currentTime() {
+    return delegate.currentTime();
+  }
+
+  @Override
+  public void sleep(double delay) throws InterruptedException {
+    delegate.sleep(delay);
+  }
+
+  @Override
+  public void recordLatency(Op kind, double latency, double bytes) {
+    delegate.recordLatency(kind, latency, bytes);
+  }
+
+  @Override
+  public double quantiles(Op kind, int nines) {
+    return delegate.quantiles(kind, nines);
+  }
+
+  @Override
+  public double quantile(Op kind, double q) {
+    return delegate.quantile(kind, q);
+  }
+
+  @Override
+  public long latencySamples(Op kind) {
+    return delegate.latencySamples(kind);
+  }
+
+  @Override
+  public void reset(double t) {
+    delegate.reset(t);
+  }
+
+  @Override
+  public LatencySummary summary(Op kind) {
+    return delegate.summary(kind);
+  }
+
+  @Override
+  public LatencySummary segmentSummary(Op kind) {
+    return delegate.segmentSummary(kind);
+  }
+}
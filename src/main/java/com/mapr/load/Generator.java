@@ -1,18 +1,16 @@
 package com.mapr.load;
 
 import com.google.common.base.Charsets;
-import com.google.common.base.Splitter;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.google.common.io.LineProcessor;
+import com.mapr.generate.FastRandom;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.List;
 import java.util.Random;
 
@@ -25,14 +23,47 @@ import java.util.Random;
  * generator.  This makes it easy to inject semantics appropriate for testing.
  */
 public class Generator {
-  private Random rand = new Random();
+  private final Random rand;
 
-  // total seconds in the trace
+  // total seconds in the trace, infinite if a trace has unknown length
   private double totalLength = 0;
-  private final List<LoadSegment> trace = Lists.newArrayList();
+  // traces are shared rather than copied, so many generators can replay one mapped trace
+  // and streaming traces can be consumed as they are read
+  private final List<Iterable<LoadSegment>> traces = Lists.newArrayList();
 
   private int blockSize;
 
+  // random numbers for the dispatch loop, built when generation starts
+  private ArrivalSchedule schedule;
+  private int precomputeDepth = 0;
+
+  public Generator() {
+    this(new FastRandom());
+  }
+
+  /**
+   * Creates a generator whose arrival times and operation choices are reproducible.
+   * @param seed  Seed for the random number generator.
+   */
+  public Generator(long seed) {
+    this(new FastRandom(seed));
+  }
+
+  private Generator(Random rand) {
+    this.rand = rand;
+  }
+
+  /**
+   * Moves the computation of arrival gaps and operation choices onto a background thread.
+   * This matters at high rates where the dispatch loop would otherwise fall behind.
+   *
+   * @param depth  How many batches of events to keep ready, zero to compute them inline.
+   */
+  public void setPrecomputeDepth(int depth) {
+    Preconditions.checkState(schedule == null, "Can't change precomputation after generation has started");
+    this.precomputeDepth = depth;
+  }
+
   /**
    * Generate events for the entire trace at rates specified in the trace.
    *
@@ -54,70 +85,85 @@ public class Generator {
    * @throws InterruptedException If a timer is aborted.
    */
   public void generate(double offset, double duration, double scale, Filer actor) throws InterruptedException, IOException {
-    double t0 = actor.currentTime();
-    double t = t0;
-    for (LoadSegment segment : trace) {
-      if (t + segment.getSegmentDuration() < offset) {
-        // skip segments that don't matter
-        t += segment.getSegmentDuration();
-      } else if (t > t0 + offset + duration) {
-        // stop if we have passed the end
-        break;
-      } else {
-        final double end = Math.min(t + segment.getSegmentDuration(), offset + duration + t0) - offset;
-        if (offset + t0 > t) {
-          // first part of segment is out of bounds
-          t = generateSegment(t, offset + t0, 0, 0, null);
+    if (schedule == null) {
+      schedule = new ArrivalSchedule(rand, ArrivalSchedule.DEFAULT_BATCH_SIZE, precomputeDepth);
+    }
+    schedule.start();
+
+    final double t0 = actor.currentTime();
+    final double stop = t0 + duration;
+    // the actor's time at which the trace starts
+    double t = t0 - offset;
+    try {
+      for (LoadSegment segment : Iterables.concat(traces)) {
+        final double segmentEnd = t + segment.getSegmentDuration();
+        if (segmentEnd <= t0) {
+          // skip segments that don't matter
+        } else if (t >= stop) {
+          // stop if we have passed the end
+          break;
+        } else {
+          // only the part of the segment after the offset and before the end is generated
+          generateSegment(Math.max(t, t0), Math.min(segmentEnd, stop),
+            scale * segment.getReadRate(), scale * segment.getWriteRate(), actor);
         }
-        t = generateSegment(t, end, scale * segment.getReadRate(), scale * segment.getWriteRate(), actor);
+        t = segmentEnd;
       }
+    } catch (StreamingTrace.ReadException e) {
+      throw e.getCause();
+    } finally {
+      schedule.stop();
     }
   }
 
   private int messageCount = 0;
-  private double generateSegment(double t, double end, double readRate, double writeRate, Filer actor) throws InterruptedException, IOException {
+  private void generateSegment(double t, double end, double readRate, double writeRate, Filer actor) throws InterruptedException, IOException {
     // total event rate
     final double rate = readRate + writeRate;
     // what portion are reads?
     final double readP = readRate / rate;
+    final double meanGap = 1 / rate;
 
     actor.segmentStart(t);
-    t = Math.min(end, t + expSample(rate));
+    t = nextArrival(t, end, meanGap);
     while (t < end) {
-      // only really sleep if there is a millisecond or more to sleep
-      final double t1 = actor.currentTime();
-      boolean slept = false;
-      if (t - t1 > 20e-3) {
-        actor.sleep(t - t1);
-        slept = true;
-      }
-      if (actor.currentTime() > t + 0.1 && slept) {
-        System.out.printf("Whacky waits\n");
+      // the actor decides how precisely (and whether) to wait for short gaps
+      double now = actor.currentTime();
+      if (t > now) {
+        actor.sleep(t - now);
+        now = actor.currentTime();
+        if (now > t + 0.1) {
+          System.out.printf("Whacky waits\n");
+        }
       }
       messageCount++;
-      if (actor.currentTime() > t + 0.1 && messageCount%100 == 0) {
-        System.out.printf("Slippage %.2f\n", actor.currentTime() - t);
+      if (now > t + 0.1 && messageCount%100 == 0) {
+        System.out.printf("Slippage %.2f\n", now - t);
       }
 
-      if (actor.currentTime() > t + 5) {
+      if (now > t + 5) {
         actor.segmentEnd(t);
         throw new IOException("Generator fell more than 5 seconds behind ... aborting run");
       }
 
       // select type of transaction
-      if (rand.nextDouble() < readP) {
+      if (schedule.choice() < readP) {
         actor.read(t, blockSize);
       } else {
         actor.write(t, blockSize);
       }
 
-      t = Math.min(end, t + expSample(rate));
+      schedule.next();
+      t = nextArrival(t, end, meanGap);
     }
-    if (t - actor.currentTime() > 1e-3) {
-      actor.sleep(t - actor.currentTime());
+    // the event that fell past the end of the segment is dropped
+    schedule.next();
+
+    final double now = actor.currentTime();
+    if (t > now) {
+      actor.sleep(t - now);
     }
     actor.segmentEnd(t);
-    return end;
   }
 
   /**
@@ -137,34 +183,13 @@ public class Generator {
    */
   public static List<LoadSegment> readTraceFile(File f) throws IOException {
     return Files.readLines(f, Charsets.UTF_8, new LineProcessor<List<LoadSegment>>() {
-      public Splitter onTabs = Splitter.on("\t").trimResults().omitEmptyStrings();
-      public DateFormat df = new SimpleDateFormat("M/d H:m:s");
-      public List<LoadSegment> trace = Lists.newArrayList();
-      double t0 = -1;
-      double reads = 0;
-      double writes = 0;
-      boolean header = true;
+      private TraceParser parser = new TraceParser();
+      private List<LoadSegment> trace = Lists.newArrayList();
 
       public boolean processLine(String line) throws IOException {
-        Iterable<String> bits = onTabs.split(line);
-        if (Iterables.size(bits) == 3) {
-          Iterator<String> i = bits.iterator();
-          final String dateString = i.next();
-          try {
-            double t = df.parse(dateString).getTime()/1e3;
-            if (t0 != -1) {
-              trace.add(new LoadSegment(reads, writes, t - t0));
-            }
-            t0 = t;
-            writes = Double.parseDouble(i.next());
-            reads = Double.parseDouble(i.next());
-          } catch (ParseException e) {
-            if (!header) {
-              throw new IOException(String.format("Bad date <%s>\n", dateString));
-            } else {
-              header = false;
-            }
-          }
+        LoadSegment segment = parser.processLine(line);
+        if (segment != null) {
+          trace.add(segment);
         }
         return true;
       }
@@ -176,27 +201,46 @@ public class Generator {
   }
 
   /**
-   * Sample from an exponential distribution.  Accumulating these delays
-   * gives us a Poisson process with the specified rate (in events per second)
-   * @param rate  The rate at which events should happen.
-   * @return  An exponentially distributed delay time.
+   * Returns the time of the next event, or the end of the segment if that comes first.
+   * Accumulating exponentially distributed gaps gives a Poisson process.
+   */
+  private double nextArrival(double t, double end, double meanGap) {
+    if (meanGap < Double.POSITIVE_INFINITY) {
+      return Math.min(end, t + meanGap * schedule.gap());
+    } else {
+      return end;
+    }
+  }
+
+  /**
+   * Reads a trace file in either the binary format or the TSV format.
+   *
+   * @param f  The file to read
+   * @return  A list of data segments.
+   * @throws IOException If the file can't be read
    */
-  private double expSample(double rate) {
-    if (rate > 0) {
-      return -Math.log(1 - rand.nextDouble()) / rate;
+  public static List<LoadSegment> openTrace(File f) throws IOException {
+    if (BinaryTrace.isBinary(f)) {
+      return BinaryTrace.open(f);
     } else {
-      return Double.MAX_VALUE;
+      return readTraceFile(f);
     }
   }
 
   /**
-   * Adds a set of trace events to this generator.
-   * @param trace   A list of load segments to add to the trace.
+   * Adds a set of trace events to this generator.  The trace is not copied so it should not
+   * be changed afterwards.  Traces that are not collections, such as a StreamingTrace, are
+   * consumed lazily during generation and are taken to be of unknown length.
+   * @param trace   The load segments to add to the trace.
    */
-  public void addTrace(List<LoadSegment> trace) {
-    this.trace.addAll(trace);
-    for (LoadSegment segment : trace) {
-      totalLength += segment.getSegmentDuration();
+  public void addTrace(Iterable<LoadSegment> trace) {
+    this.traces.add(trace);
+    if (trace instanceof Collection) {
+      for (LoadSegment segment : trace) {
+        totalLength += segment.getSegmentDuration();
+      }
+    } else {
+      totalLength = Double.POSITIVE_INFINITY;
     }
   }
 
@@ -0,0 +1,44 @@
+package com.mapr.load;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes one JSON object per line per segment.  Missing values are written as null since JSON
+ * has no NaN.
+ */
+public class JsonMetricsSink implements MetricsSink {
+  private final Writer out;
+
+  public JsonMetricsSink(Writer out) {
+    this.out = out;
+  }
+
+  @Override
+  public void write(SegmentMetrics metrics) throws IOException {
+    List<String> columns = SegmentMetrics.columns();
+    StringBuilder line = new StringBuilder("{");
+    for (int i = 0; i < columns.size(); i++) {
+      if (i > 0) {
+        line.append(", ");
+      }
+      line.append('"').append(columns.get(i)).append("\": ");
+      final double v = metrics.get(i);
+      if (SegmentMetrics.isCount(i)) {
+        line.append((long) v);
+      } else if (Double.isNaN(v) || Double.isInfinite(v)) {
+        line.append("null");
+      } else {
+        line.append(v);
+      }
+    }
+    line.append("}\n");
+    out.write(line.toString());
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,231 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fixed-memory latency histogram with log-linear buckets in the style of HdrHistogram.
+ *
+ * Latencies are recorded in seconds but bucketed as integer nanoseconds.  Each power of two
+ * is split into 2^k linear sub-buckets so that every bucket is narrower than a configurable
+ * fraction of the values it holds.  Recording is a constant time array increment and any
+ * quantile can be answered with a single pass over the buckets.
+ */
+public class LatencyHistogram {
+  // values are clamped to 2^44 ns which is a bit under 5 hours
+  private static final int MAX_BITS = 44;
+  private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+  private final double relativeError;
+  private final int subBucketBits;
+  private final long subBucketCount;
+  private final long[] counts;
+
+  private long total;
+  private double sum;
+  private double min;
+  private double max;
+
+  /**
+   * Creates a histogram with about 1% relative error.
+   */
+  public LatencyHistogram() {
+    this(0.01);
+  }
+
+  /**
+   * Creates a histogram whose buckets are no wider than the specified fraction of the values
+   * they contain.
+   *
+   * @param relativeError The largest acceptable relative error, 1% is typical.
+   */
+  public LatencyHistogram(double relativeError) {
+    Preconditions.checkArgument(relativeError > 0 && relativeError < 1, "Relative error must be in (0, 1)");
+    this.relativeError = relativeError;
+    subBucketBits = (int) Math.ceil(Math.log(1 / relativeError) / Math.log(2));
+    subBucketCount = 1L << subBucketBits;
+    counts = new long[(MAX_BITS - subBucketBits + 2) << subBucketBits];
+    reset();
+  }
+
+  /**
+   * Records a single latency.
+   *
+   * @param latency The latency in seconds.
+   */
+  public void add(double latency) {
+    counts[index(toNanos(latency))]++;
+    total++;
+    sum += latency;
+    if (latency < min) {
+      min = latency;
+    }
+    if (latency > max) {
+      max = latency;
+    }
+  }
+
+  /**
+   * Adds all of the values recorded in another histogram to this one.  The cost is
+   * proportional to the number of buckets.
+   *
+   * @param other  A histogram with the same relative error.  It is not modified.
+   */
+  public void merge(LatencyHistogram other) {
+    Preconditions.checkArgument(other.subBucketBits == subBucketBits, "Can't merge histograms with different precision");
+    Preconditions.checkArgument(other != this, "Can't merge a histogram with itself");
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    total += other.total;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * Writes this histogram in a form that readFields() can restore.  Only non-empty buckets
+   * are written.
+   */
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(subBucketBits);
+    out.writeLong(total);
+    out.writeDouble(sum);
+    out.writeDouble(min);
+    out.writeDouble(max);
+    int used = 0;
+    for (long count : counts) {
+      if (count != 0) {
+        used++;
+      }
+    }
+    out.writeInt(used);
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        out.writeInt(i);
+        out.writeLong(counts[i]);
+      }
+    }
+  }
+
+  /**
+   * Replaces the contents of this histogram with one written by write().  Both must have the
+   * same relative error.
+   */
+  public void readFields(DataInput in) throws IOException {
+    final int bits = in.readInt();
+    if (bits != subBucketBits) {
+      throw new IOException("Can't read a histogram with different precision");
+    }
+    reset();
+    total = in.readLong();
+    sum = in.readDouble();
+    min = in.readDouble();
+    max = in.readDouble();
+    final int used = in.readInt();
+    for (int k = 0; k < used; k++) {
+      final int i = in.readInt();
+      if (i < 0 || i >= counts.length) {
+        throw new IOException("Invalid histogram bucket " + i);
+      }
+      counts[i] = in.readLong();
+    }
+  }
+
+  /**
+   * Clears all recorded values.
+   */
+  public void reset() {
+    Arrays.fill(counts, 0);
+    total = 0;
+    sum = 0;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * Returns an estimate of the q-th quantile of the recorded latencies.  The result is
+   * within the relative error of the histogram of the true value.
+   *
+   * @param q The desired quantile, between 0 and 1 inclusive.
+   * @return The estimated quantile in seconds or NaN if nothing has been recorded.
+   */
+  public double quantile(double q) {
+    Preconditions.checkArgument(q >= 0 && q <= 1, "Quantile must be in [0, 1]");
+    if (total == 0) {
+      return Double.NaN;
+    }
+    if (q == 0) {
+      return min;
+    } else if (q == 1) {
+      return max;
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(q * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        // the middle of the bucket, but never outside the observed range
+        double value = (lowerBound(i) + bucketWidth(i) / 2.0) * 1e-9;
+        return Math.max(min, Math.min(max, value));
+      }
+    }
+    return max;
+  }
+
+  public long size() {
+    return total;
+  }
+
+  public double mean() {
+    return total == 0 ? Double.NaN : sum / total;
+  }
+
+  public double min() {
+    return total == 0 ? Double.NaN : min;
+  }
+
+  public double max() {
+    return total == 0 ? Double.NaN : max;
+  }
+
+  public double relativeError() {
+    return relativeError;
+  }
+
+  private static long toNanos(double latency) {
+    if (latency <= 0) {
+      return 0;
+    }
+    return Math.min(MAX_VALUE, (long) (latency * 1e9));
+  }
+
+  private int index(long v) {
+    if (v < subBucketCount) {
+      return (int) v;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(v) - subBucketBits;
+    return (int) (((shift + 1L) << subBucketBits) + (v >>> shift) - subBucketCount);
+  }
+
+  private long lowerBound(int index) {
+    if (index < subBucketCount) {
+      return index;
+    }
+    final int shift = (index >>> subBucketBits) - 1;
+    final long sub = index & (subBucketCount - 1);
+    return (subBucketCount + sub) << shift;
+  }
+
+  private long bucketWidth(int index) {
+    if (index < subBucketCount) {
+      return 1;
+    }
+    return 1L << ((index >>> subBucketBits) - 1);
+  }
+}
@@ -0,0 +1,121 @@
+package com.mapr.load;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Summarizes the latency and throughput of one kind of operation over some time window.
+ * High quantiles come from a TopTailAnalyzer and the rest of the distribution from a
+ * LatencyHistogram.  Summaries can be merged so that results from several filers, threads
+ * or segments can be combined without keeping the samples.
+ */
+public class LatencySummary {
+  private final TopTailAnalyzer tail = new TopTailAnalyzer();
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  public void add(double latency, double bytes) {
+    tail.add(latency, bytes);
+    histogram.add(latency);
+  }
+
+  /**
+   * Resets all stats to zero.
+   * @param t  Current time
+   */
+  public void reset(double t) {
+    tail.reset(t);
+    histogram.reset();
+  }
+
+  /**
+   * Adds another summary into this one.  This costs O(summary size) regardless of how
+   * many samples either summary has seen.
+   *
+   * @param other  The summary to add.  It is not modified.
+   */
+  public void merge(LatencySummary other) {
+    tail.merge(other.tail);
+    histogram.merge(other.histogram);
+  }
+
+  /**
+   * Adds the samples of another summary that covers the same interval.  Unlike merge(), the
+   * time origin of this summary is kept.
+   *
+   * @param other  The summary to add.  It is not modified.
+   */
+  public void addSamples(LatencySummary other) {
+    if (other.size() > 0) {
+      tail.addSamples(other.tail);
+      histogram.merge(other.histogram);
+    }
+  }
+
+  /**
+   * Writes this summary so that it can be sent to another process and merged there.
+   *
+   * @param t  The reference time that the time origin is written relative to.
+   */
+  public void write(DataOutput out, double t) throws IOException {
+    tail.write(out, t);
+    histogram.write(out);
+  }
+
+  /**
+   * Replaces the contents of this summary with one written by write().
+   *
+   * @param t  The local time that corresponds to the writer's reference time.
+   */
+  public void readFields(DataInput in, double t) throws IOException {
+    tail.readFields(in, t);
+    histogram.readFields(in);
+  }
+
+  /**
+   * Returns the (1-10^-nines) quantile from the top tail analyzer.  This needs more than
+   * 100 samples.
+   */
+  public double quantiles(int nines) {
+    return tail.quantile(nines);
+  }
+
+  /**
+   * Returns any quantile from the histogram.  This is NaN if there are no samples.
+   */
+  public double quantile(double q) {
+    return histogram.quantile(q);
+  }
+
+  public double meanLatency() {
+    return tail.meanLatency();
+  }
+
+  public double min() {
+    return histogram.min();
+  }
+
+  public double max() {
+    return histogram.max();
+  }
+
+  public double meanBytesPerSecond(double t) {
+    return tail.meanBytesPerSecond(t);
+  }
+
+  public double meanBlocksPerSecond(double t) {
+    return tail.meanBlocksPerSecond(t);
+  }
+
+  public double totalBytes() {
+    return tail.totalBytes();
+  }
+
+  public double totalBlocks() {
+    return tail.totalBlocks();
+  }
+
+  public long size() {
+    return tail.size();
+  }
+}
@@ -0,0 +1,115 @@
+package com.mapr.load;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for a run in progress that can be read at any time, from any
+ * thread.  Any number of filers can share one of these.  Recording is a handful of atomic
+ * increments with no locks so it is safe to do on the thread being timed.
+ *
+ * Histograms have fixed power of two bucket boundaries from 1us to about 17s so they can be
+ * exported as Prometheus histograms and aggregated across generators.
+ */
+public class LiveMetrics {
+  private static final double[] BOUNDS = new double[25];
+
+  static {
+    for (int i = 0; i < BOUNDS.length; i++) {
+      BOUNDS[i] = 1e-6 * Math.pow(2, i);
+    }
+  }
+
+  // one more bucket than bounds for everything beyond the last bound
+  private static final int BUCKETS = BOUNDS.length + 1;
+  private static final int OPS = Filer.Op.values().length;
+
+  private final AtomicLongArray operations = new AtomicLongArray(OPS);
+  private final AtomicLongArray bytes = new AtomicLongArray(OPS);
+  private final AtomicLongArray latencyNanos = new AtomicLongArray(OPS);
+  private final AtomicLongArray latency = new AtomicLongArray(OPS * BUCKETS);
+
+  private final AtomicLong slippageNanos = new AtomicLong();
+  private final AtomicLongArray slippage = new AtomicLongArray(BUCKETS);
+
+  /**
+   * Records a completed operation.
+   */
+  public void record(Filer.Op kind, double latency, double bytes) {
+    final int op = kind.ordinal();
+    operations.incrementAndGet(op);
+    this.bytes.addAndGet(op, (long) bytes);
+    latencyNanos.addAndGet(op, (long) (latency * 1e9));
+    this.latency.incrementAndGet(op * BUCKETS + bucket(latency));
+  }
+
+  /**
+   * Records how late an operation was issued.
+   */
+  public void recordSlippage(double late) {
+    slippageNanos.addAndGet((long) (late * 1e9));
+    slippage.incrementAndGet(bucket(late));
+  }
+
+  public long operations(Filer.Op kind) {
+    return operations.get(kind.ordinal());
+  }
+
+  private static int bucket(double value) {
+    int i = Arrays.binarySearch(BOUNDS, value);
+    // an exact match belongs in its own bucket since bounds are inclusive
+    return i >= 0 ? i : -i - 1;
+  }
+
+  /**
+   * Writes all metrics in the Prometheus text exposition format.  Each series is read
+   * separately so a scrape during a run may be off by a few operations between series.
+   */
+  public void writePrometheus(Writer out) throws IOException {
+    StringBuilder s = new StringBuilder();
+
+    s.append("# HELP load_operations_total Operations completed.\n");
+    s.append("# TYPE load_operations_total counter\n");
+    for (Filer.Op op : Filer.Op.values()) {
+      s.append(String.format("load_operations_total{op=\"%s\"} %d\n", label(op), operations.get(op.ordinal())));
+    }
+
+    s.append("# HELP load_bytes_total Bytes transferred.\n");
+    s.append("# TYPE load_bytes_total counter\n");
+    for (Filer.Op op : Filer.Op.values()) {
+      s.append(String.format("load_bytes_total{op=\"%s\"} %d\n", label(op), bytes.get(op.ordinal())));
+    }
+
+    s.append("# HELP load_latency_seconds Operation latency.\n");
+    s.append("# TYPE load_latency_seconds histogram\n");
+    for (Filer.Op op : Filer.Op.values()) {
+      writeHistogram(s, "load_latency_seconds", "op=\"" + label(op) + "\",", latency, op.ordinal() * BUCKETS,
+        latencyNanos.get(op.ordinal()));
+    }
+
+    s.append("# HELP load_slippage_seconds How late operations were issued relative to their schedule.\n");
+    s.append("# TYPE load_slippage_seconds histogram\n");
+    writeHistogram(s, "load_slippage_seconds", "", slippage, 0, slippageNanos.get());
+
+    out.write(s.toString());
+  }
+
+  private static void writeHistogram(StringBuilder s, String name, String labels, AtomicLongArray counts, int offset, long sumNanos) {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(offset + i);
+      final String le = i < BOUNDS.length ? String.valueOf(BOUNDS[i]) : "+Inf";
+      s.append(String.format("%s_bucket{%sle=\"%s\"} %d\n", name, labels, le, total));
+    }
+    final String bare = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+    s.append(String.format("%s_sum%s %s\n", name, bare, String.valueOf(sumNanos * 1e-9)));
+    s.append(String.format("%s_count%s %d\n", name, bare, total));
+  }
+
+  private static String label(Filer.Op op) {
+    return op.name().toLowerCase();
+  }
+}
@@ -1,22 +1,226 @@
 package com.mapr.load;
 
+import com.google.common.collect.Lists;
+import com.mapr.generate.ChineseRestaurant;
+import com.mapr.generate.Sampler;
+
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 public class Load {
   public static void main(String[] args) throws IOException, InterruptedException {
-    Generator g = new Generator();
-    g.setBlockSize(4096);
+    // -Dfile=path keeps the test file around so that it only has to be prefilled once
+    String fileName = System.getProperty("file");
+    File file = new File(fileName == null ? "file.goo" : fileName);
+    if (fileName == null) {
+      file.deleteOnExit();
+    }
+
+    // -Dprefill=N lays out N MB of blocks before anything is measured, with -DprefillThreads=N
+    // writers
+    long prefill = Long.getLong("prefill", 0);
+    if (prefill > 0) {
+      final double t0 = System.nanoTime() * 1e-9;
+      boolean written = Prefill.fill(file, (prefill << 20) / 4096, 4096, Integer.getInteger("prefillThreads", 4));
+      System.out.printf("%s %s, %d MB in %.1f s\n", file, written ? "prefilled" : "already prefilled", prefill,
+        System.nanoTime() * 1e-9 - t0);
+    }
+
+    // -Dprecompute=N keeps N batches of arrivals ready on a background thread
+    int precompute = Integer.getInteger("precompute", 0);
+
+    // -Dmetrics=file.csv|file.jsonl|file.bin writes segment metrics to a file instead of printing
+    String metricsFile = System.getProperty("metrics");
+    MetricsSink metrics = metricsFile == null ? null : MetricsSinks.open(new File(metricsFile));
 
-    File file = new File("file.goo");
-    file.deleteOnExit();
+    // -DmetricsPort=N serves live Prometheus metrics on port N
+    Integer metricsPort = Integer.getInteger("metricsPort");
+    LiveMetrics live = null;
+    MetricsServer server = null;
+    if (metricsPort != null) {
+      live = new LiveMetrics();
+      server = MetricsServer.start(metricsPort, live);
+    }
+    try {
+      run(args, file, precompute, metrics, live);
+    } finally {
+      if (metrics != null) {
+        metrics.close();
+      }
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
 
-    final Filer actor = RandomFiler.create(file, 1000000, 1, 1);
+  private static void run(String[] args, File file, int precompute, MetricsSink metrics, LiveMetrics live) throws IOException, InterruptedException {
+    // -Dthreads=N shares the load of each trace across N worker threads
+    int threads = Integer.getInteger("threads", 1);
+    if (threads > 1) {
+      for (String option : new String[]{"depth", "mmap", "workers", "simulate"}) {
+        if (System.getProperty(option) != null) {
+          throw new IllegalArgumentException("-Dthreads only works with the standard filer, not -D" + option);
+        }
+      }
+      // each thread replays the whole trace so it has to be loaded up front
+      if (Boolean.getBoolean("stream") || Arrays.asList(args).contains("-")) {
+        throw new IllegalArgumentException("-Dthreads only works with trace files, not -Dstream or stdin");
+      }
+      // one sampler so that the threads write one power law between them rather than each
+      // hammering the same hot blocks
+      Sampler<Integer> sampler = writeSampler();
+      List<Filer> workers = Lists.newArrayList();
+      RandomFiler first = null;
+      for (int i = 0; i < threads; i++) {
+        RandomFiler worker = randomFiler(file, sampler, live);
+        if (first == null) {
+          first = worker;
+        } else {
+          worker.shareWritesWith(first);
+        }
+        workers.add(worker);
+      }
+      for (String trace : args) {
+        // each trace is replayed once, by itself
+        ParallelGenerator g = new ParallelGenerator(workers);
+        g.setBlockSize(4096);
+        g.setPrecomputeDepth(precompute);
+        g.setMetricsSink(metrics);
+        g.reset();
+        g.addTrace(Generator.openTrace(new File(trace)));
+        g.generate(1);
+      }
+      return;
+    }
+
+    // -Dworkers=N issues operations open-loop to N I/O threads
+    // -Ddepth=N keeps up to N asynchronous operations outstanding
+    // -Dmmap=true does I/O through memory mapped regions
+    final Filer actor;
+    int ioWorkers = Integer.getInteger("workers", 0);
+    int queueDepth = Integer.getInteger("depth", 0);
+    if (Boolean.getBoolean("direct") && (queueDepth > 0 || Boolean.getBoolean("mmap"))) {
+      throw new IllegalArgumentException("-Ddirect=true only works with the synchronous filers, not -Ddepth or -Dmmap");
+    }
+    // -Dsimulate=S replays in virtual time against a model device with mean service time S
+    // seconds and -Dchannels=N parallel channels
+    String simulate = System.getProperty("simulate");
+    if (simulate != null) {
+      SimulatedFiler simulated = SimulatedFiler.create(Double.parseDouble(simulate), Integer.getInteger("channels", 1));
+      simulated.setMetricsSink(metrics);
+      simulated.setLiveMetrics(live);
+      actor = simulated;
+    } else if (queueDepth > 0) {
+      AsyncFiler async = AsyncFiler.create(file, 1000000, 1, 1, queueDepth);
+      async.setPacing(pacing());
+      async.setMetricsSink(metrics);
+      async.setLiveMetrics(live);
+      actor = async;
+    } else if (Boolean.getBoolean("mmap")) {
+      MappedFiler mapped = MappedFiler.create(file, 1000000, 1, 1);
+      // -DforceInterval=S forces dirty regions to disk at most every S seconds
+      mapped.setForceInterval(Double.parseDouble(System.getProperty("forceInterval", "0")));
+      mapped.setPacing(pacing());
+      mapped.setMetricsSink(metrics);
+      mapped.setLiveMetrics(live);
+      actor = mapped;
+    } else if (ioWorkers > 0) {
+      // like -Dthreads, the workers write one power law between them
+      Sampler<Integer> sampler = writeSampler();
+      List<BaseFiler> workers = Lists.newArrayList();
+      RandomFiler first = null;
+      for (int i = 0; i < ioWorkers; i++) {
+        RandomFiler worker = randomFiler(file, sampler, live);
+        if (first == null) {
+          first = worker;
+        } else {
+          worker.shareWritesWith(first);
+        }
+        workers.add(worker);
+      }
+      OpenLoopFiler openLoop = new OpenLoopFiler(workers);
+      openLoop.setMetricsSink(metrics);
+      actor = openLoop;
+    } else {
+      RandomFiler random = randomFiler(file, writeSampler(), live);
+      random.setMetricsSink(metrics);
+      actor = random;
+    }
 
     for (String trace : args) {
+      // each trace is replayed once, by itself
+      Generator g = new Generator();
+      g.setBlockSize(4096);
+      g.setPrecomputeDepth(precompute);
       actor.reset(actor.currentTime());
-      g.addTrace(Generator.readTraceFile(new File(trace)));
-      g.generate(actor);
+      Iterable<Generator.LoadSegment> segments = openTrace(trace);
+      try {
+        g.addTrace(segments);
+        g.generate(actor);
+      } finally {
+        // stops a streaming trace's reader if the run ended early
+        if (segments instanceof Closeable) {
+          ((Closeable) segments).close();
+        }
+      }
+    }
+    if (actor instanceof OpenLoopFiler) {
+      // the last segments are reported once their operations complete
+      ((OpenLoopFiler) actor).flush();
+    }
+  }
+
+  /**
+   * Opens a trace.  A name of "-" streams a trace from standard input and -Dstream=true streams
+   * trace files instead of loading them up front.
+   */
+  private static Iterable<Generator.LoadSegment> openTrace(String name) throws IOException {
+    if (name.equals("-")) {
+      return StreamingTrace.open(System.in, "stdin");
+    } else if (Boolean.getBoolean("stream")) {
+      return StreamingTrace.open(new File(name));
+    } else {
+      return Generator.openTrace(new File(name));
+    }
+  }
+
+  /**
+   * Returns the pacing strategy selected with -Dpacing=sleep|park_spin|park_yield.
+   */
+  private static RealTimeFiler.Pacing pacing() {
+    return RealTimeFiler.Pacing.valueOf(System.getProperty("pacing", "sleep").toUpperCase());
+  }
+
+  /**
+   * Returns the power law that the standard filer's writes follow.
+   */
+  private static Sampler<Integer> writeSampler() {
+    return new ChineseRestaurant(1000000, 1);
+  }
+
+  /**
+   * Creates the standard random access filer with writes drawn from a sampler, which can be
+   * shared with other filers.  With -DreadPattern=hot reads follow their own power law, with
+   * -DreadPattern=shared they follow the popularity of the writes.  With -Ddirect=true I/O
+   * bypasses the page cache.
+   */
+  private static RandomFiler randomFiler(File file, Sampler<Integer> sampler, LiveMetrics live) throws IOException {
+    RandomFiler r = Boolean.getBoolean("direct")
+      ? new RandomFiler(DirectIo.open(file), sampler, 1)
+      : new RandomFiler(file, sampler, 1);
+    r.setPacing(pacing());
+    r.setLiveMetrics(live);
+    String pattern = System.getProperty("readPattern", "uniform");
+    if (pattern.equals("hot")) {
+      r.useHotSetReads(1000, 0.5);
+    } else if (pattern.equals("shared")) {
+      r.useWritePopularityForReads();
+    } else if (!pattern.equals("uniform")) {
+      throw new IllegalArgumentException("Unknown read pattern " + pattern);
     }
+    return r;
   }
 }
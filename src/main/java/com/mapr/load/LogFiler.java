@@ -0,0 +1,189 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+import com.mapr.generate.FastRandom;
+import com.mapr.generate.Sampler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A database log.  Writes append blocks sequentially until the log reaches its maximum size,
+ * then either wrap around to the start and overwrite the oldest blocks, or truncate the file and
+ * start again from empty.  The time taken to truncate is charged to the write that triggered it.
+ *
+ * Reads are tail reads of recently written blocks, which is what replicas and recovery do.  The
+ * most recent writes are kept in a ring, and each read goes back a number of blocks drawn from
+ * a lag distribution.  A read that would go back further than the log reaches reads the oldest
+ * block still there, like a replica that has fallen behind and resyncs from the start of the
+ * log.  Reads of an empty log are counted as misses.  Each block starts with its sequence
+ * number and reads check it.
+ *
+ * A log has one writer so a LogFiler shouldn't be shared between threads.
+ */
+public class LogFiler extends RealTimeFiler {
+  public enum Mode {
+    /**
+     * Overwrite the oldest blocks, like a circular log.
+     */
+    WRAP,
+    /**
+     * Truncate to empty and start again, like a log that is checkpointed and discarded.
+     */
+    TRUNCATE
+  }
+
+  private static final int DEFAULT_WINDOW = 4096;
+
+  private final FileChannel channel;
+  private final long maxBlocks;
+  private final Mode mode;
+  private final Sampler<Integer> lag;
+  private final Random rand = new FastRandom();
+
+  // the last few writes, by sequence number modulo the window
+  private final long[] ringSequence;
+  private final long[] ringBlock;
+
+  // sequence number of the next write, and where in the file it goes
+  private long sequence = 0;
+  private long nextBlock = 0;
+
+  // writes since the log was last emptied
+  private long live = 0;
+
+  private int truncations = 0;
+  private long misses = 0;
+
+  private ByteBuffer buf;
+
+  /**
+   * Creates a log that reads back an average of meanLag blocks from the end.
+   */
+  public static LogFiler create(File f, long maxBytes, int blockSize, Mode mode, double meanLag) throws IOException {
+    return new LogFiler(f, maxBytes / blockSize, mode, geometricLag(meanLag, new FastRandom()), DEFAULT_WINDOW, 1);
+  }
+
+  /**
+   * @param f          The log file, which is emptied.
+   * @param maxBlocks  How many blocks the log holds before it wraps or is truncated.
+   * @param mode       What happens when the log is full.
+   * @param lag        How many blocks before the most recent a read goes.  Zero reads the last
+   *                   block written.
+   * @param window     How many recent writes reads can reach.
+   * @param timeRate   How much faster than real time to run.
+   */
+  public LogFiler(File f, long maxBlocks, Mode mode, Sampler<Integer> lag, int window, double timeRate) throws IOException {
+    super(timeRate);
+    Preconditions.checkArgument(maxBlocks > 0, "Log must hold at least one block");
+    Preconditions.checkArgument(window > 0, "Window must be positive, got %s", window);
+    this.maxBlocks = maxBlocks;
+    this.mode = mode;
+    this.lag = lag;
+    channel = new RandomAccessFile(f, "rw").getChannel();
+    channel.truncate(0);
+    ringSequence = new long[window];
+    ringBlock = new long[window];
+    Arrays.fill(ringSequence, -1);
+  }
+
+  /**
+   * Lags with a geometric distribution, which is how far back readers that mostly keep up with
+   * the writer end up.
+   *
+   * @param mean  Mean lag in blocks.
+   */
+  public static Sampler<Integer> geometricLag(double mean, final Random rand) {
+    Preconditions.checkArgument(mean >= 0, "Mean lag can't be negative, got %s", mean);
+    final double p = 1 / (1 + mean);
+    return new Sampler<Integer>() {
+      @Override
+      public Integer sample() {
+        if (p == 1) {
+          return 0;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.floor(Math.log(1 - rand.nextDouble()) / Math.log(1 - p)));
+      }
+    };
+  }
+
+  @Override
+  public void write(double t, int blockSize) throws IOException {
+    setBlockSize(blockSize);
+    double t0 = startTime(t);
+    if (nextBlock == maxBlocks) {
+      if (mode == Mode.TRUNCATE) {
+        channel.truncate(0);
+        truncations++;
+        // nothing written before the truncation can be read any more
+        live = 0;
+      }
+      nextBlock = 0;
+    }
+
+    buf.clear();
+    buf.putLong(0, sequence);
+    channel.write(buf, nextBlock * blockSize);
+    double t1 = currentTime();
+    recordLatency(Op.WRITE, t1 - t0, blockSize);
+
+    final int slot = (int) (sequence % ringSequence.length);
+    ringSequence[slot] = sequence;
+    ringBlock[slot] = nextBlock;
+    sequence++;
+    nextBlock++;
+    live = Math.min(live + 1, maxBlocks);
+  }
+
+  @Override
+  public void read(double t, int blockSize) throws IOException {
+    setBlockSize(blockSize);
+    if (live == 0) {
+      // nothing to tail yet, or everything was just truncated away
+      misses++;
+      return;
+    }
+    // lags beyond what is still in the log stop at the oldest block
+    final long reachable = Math.min(live, ringSequence.length);
+    final long target = sequence - 1 - Math.min(lag.sample(), reachable - 1);
+    final int slot = (int) (target % ringSequence.length);
+    Preconditions.checkState(ringSequence[slot] == target, "Lost track of block %s", target);
+
+    double t0 = startTime(t);
+    buf.clear();
+    channel.read(buf, ringBlock[slot] * blockSize);
+    if (buf.getLong(0) != target) {
+      throw new IOException("Log block " + ringBlock[slot] + " should hold sequence number " + target);
+    }
+    double t1 = currentTime();
+    recordLatency(Op.READ, t1 - t0, blockSize);
+  }
+
+  private void setBlockSize(int blockSize) {
+    if (buf == null || buf.capacity() != blockSize) {
+      Preconditions.checkState(buf == null, "Block size can't change during a run");
+      byte[] content = new byte[blockSize];
+      rand.nextBytes(content);
+      buf = ByteBuffer.wrap(content);
+    }
+  }
+
+  /**
+   * Returns how many times the log has been truncated.
+   */
+  public int getTruncations() {
+    return truncations;
+  }
+
+  /**
+   * Returns how many reads found the log empty.
+   */
+  public long getMisses() {
+    return misses;
+  }
+}
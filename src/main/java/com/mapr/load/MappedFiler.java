@@ -0,0 +1,181 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+import com.mapr.generate.ChineseRestaurant;
+import com.mapr.generate.FastRandom;
+import com.mapr.generate.Sampler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Does the same uniform reads and power law distributed writes as RandomFiler, but through
+ * memory mapped regions of the file the way mmap based databases do.  Reads and writes are
+ * memory copies from and to the mapping so page faults and write-back are what get measured.
+ *
+ * Optionally, dirty regions are forced to disk on a fixed cadence.  The time taken by a force
+ * is charged to the write that triggered it, much like a database checkpoint stalls a writer.
+ */
+public class MappedFiler extends RealTimeFiler {
+  // regions are mapped as needed, 64MB at a time by default
+  private static final long DEFAULT_REGION_SIZE = 64 << 20;
+
+  private final FileChannel channel;
+  private final Sampler<Integer> sampler;
+  private final Random rand = new FastRandom();
+  private final long regionSize;
+
+  private MappedByteBuffer[] regions = new MappedByteBuffer[0];
+  private boolean[] dirty = new boolean[0];
+
+  // blocks below this have been written or were present when we started
+  private long highWater = -1;
+
+  private double forceInterval = 0;
+  private double lastForce = -1;
+  private int forces = 0;
+
+  // WATCHOUT: assumes single reader/writer thread!
+  private byte[] block;
+  private ByteBuffer blockView;
+
+  public static MappedFiler create(File f, double alpha, double discount, double timeRate) throws IOException {
+    return new MappedFiler(f, new ChineseRestaurant(alpha, discount), timeRate, DEFAULT_REGION_SIZE);
+  }
+
+  public MappedFiler(File f, Sampler<Integer> sampler, double timeRate, long regionSize) throws IOException {
+    super(timeRate);
+    this.sampler = sampler;
+    this.regionSize = regionSize;
+    channel = new RandomAccessFile(f, "rw").getChannel();
+  }
+
+  /**
+   * Sets how often dirty regions are forced to disk.
+   *
+   * @param seconds  Minimum time between forces, zero (the default) to leave write-back to the OS.
+   */
+  public void setForceInterval(double seconds) {
+    this.forceInterval = seconds;
+  }
+
+  @Override
+  public void read(double t, int blockSize) throws IOException {
+    setBlockSize(blockSize);
+    if (highWater == 0) {
+      throw new IOException("Can't read from an empty file");
+    }
+    long id = (long) (rand.nextDouble() * highWater);
+    final long offset = id * blockSize;
+
+    double t0 = startTime(t);
+    MappedByteBuffer region = region(offset);
+    region.position((int) (offset % regionSize));
+    region.get(block);
+
+    if (blockView.getLong(0) != id) {
+      throw new IOException("Block has incorrect content");
+    }
+    double t1 = currentTime();
+    recordLatency(Op.READ, t1 - t0, blockSize);
+  }
+
+  @Override
+  public void write(double t, int blockSize) throws IOException {
+    setBlockSize(blockSize);
+    long id = sampler.sample();
+    final long offset = id * blockSize;
+    blockView.putLong(0, id);
+
+    double t0 = startTime(t);
+    MappedByteBuffer region = region(offset);
+    region.position((int) (offset % regionSize));
+    region.put(block);
+    dirty[(int) (offset / regionSize)] = true;
+    highWater = Math.max(highWater, id + 1);
+
+    if (forceInterval > 0) {
+      final double now = currentTime();
+      if (lastForce < 0) {
+        lastForce = now;
+      } else if (now - lastForce >= forceInterval) {
+        force();
+        forces++;
+        lastForce = now;
+      }
+    }
+    double t1 = currentTime();
+    recordLatency(Op.WRITE, t1 - t0, blockSize);
+  }
+
+  /**
+   * Returns how many times writes have triggered a force.
+   */
+  public int getForces() {
+    return forces;
+  }
+
+  /**
+   * Flushes all dirty regions to disk.
+   */
+  public void force() {
+    for (int i = 0; i < regions.length; i++) {
+      if (dirty[i]) {
+        regions[i].force();
+        dirty[i] = false;
+      }
+    }
+  }
+
+  private void setBlockSize(int blockSize) throws IOException {
+    if (block == null || block.length != blockSize) {
+      Preconditions.checkArgument(regionSize % blockSize == 0, "Region size must be a multiple of the block size");
+      block = new byte[blockSize];
+      rand.nextBytes(block);
+      blockView = ByteBuffer.wrap(block);
+      highWater = dataBlocks(blockSize);
+    }
+  }
+
+  /**
+   * Finds how many blocks of an existing file hold data.  Mapping extends the file to whole
+   * regions, so a file left by an earlier run can end with up to a region of zeros that were
+   * never written.  Blocks are written in order of first use, so the data ends at the last block
+   * that holds its own id.
+   */
+  private long dataBlocks(int blockSize) throws IOException {
+    final long blocks = channel.size() / blockSize;
+    final long limit = Math.max(0, blocks - regionSize / blockSize);
+    ByteBuffer header = ByteBuffer.allocate(8);
+    for (long id = blocks - 1; id >= limit; id--) {
+      header.clear();
+      channel.read(header, id * blockSize);
+      if (header.getLong(0) == id) {
+        return id + 1;
+      }
+    }
+    // not laid out by us, so let reads report what they find
+    return blocks;
+  }
+
+  /**
+   * Returns the region that contains an offset, mapping it (and extending the file) if need be.
+   */
+  private MappedByteBuffer region(long offset) throws IOException {
+    final int i = (int) (offset / regionSize);
+    if (i >= regions.length) {
+      regions = Arrays.copyOf(regions, Math.max(i + 1, 2 * regions.length));
+      dirty = Arrays.copyOf(dirty, regions.length);
+    }
+    if (regions[i] == null) {
+      regions[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * regionSize, regionSize);
+    }
+    return regions[i];
+  }
+}
@@ -0,0 +1,64 @@
+package com.mapr.load;
+
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+
+/**
+ * Serves live metrics over HTTP at /metrics in the Prometheus text format so that a run can be
+ * watched from a dashboard alongside the storage system under test.  The server runs on a
+ * single background thread and only reads the atomic counters in LiveMetrics, so it never
+ * holds up the I/O being measured.
+ */
+public class MetricsServer {
+  private final HttpServer server;
+
+  /**
+   * Starts serving.
+   *
+   * @param address  Where to listen.  Port 0 picks a free port.
+   * @param metrics  What to serve.
+   */
+  public MetricsServer(InetSocketAddress address, final LiveMetrics metrics) throws IOException {
+    server = HttpServer.create(address, 0);
+    server.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          StringWriter text = new StringWriter();
+          metrics.writePrometheus(text);
+          byte[] body = text.toString().getBytes(Charsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+          exchange.sendResponseHeaders(200, body.length);
+          OutputStream out = exchange.getResponseBody();
+          out.write(body);
+          out.close();
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+  }
+
+  /**
+   * Starts serving on all interfaces.
+   */
+  public static MetricsServer start(int port, LiveMetrics metrics) throws IOException {
+    return new MetricsServer(new InetSocketAddress(port), metrics);
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public void stop() {
+    server.stop(0);
+  }
+}
@@ -0,0 +1,14 @@
+package com.mapr.load;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the metrics of each segment, typically to write them somewhere for later analysis.
+ *
+ * Filers call write() on the thread that does the I/O so sinks that do real I/O should be
+ * wrapped in an AsyncMetricsSink.  See MetricsSinks for the standard formats.
+ */
+public interface MetricsSink extends Closeable {
+  void write(SegmentMetrics metrics) throws IOException;
+}
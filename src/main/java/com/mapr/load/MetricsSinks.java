@@ -0,0 +1,38 @@
+package com.mapr.load;
+
+import com.google.common.base.Charsets;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * Opens the standard metrics sinks.
+ */
+public class MetricsSinks {
+  private MetricsSinks() {
+  }
+
+  /**
+   * Opens a sink that writes to a file in a format chosen by the file's extension: .csv,
+   * .json or .jsonl, or .bin.  Writing happens on a background thread.
+   */
+  public static MetricsSink open(File f) throws IOException {
+    final String name = f.getName();
+    final MetricsSink sink;
+    if (name.endsWith(".csv")) {
+      sink = new CsvMetricsSink(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), Charsets.UTF_8)));
+    } else if (name.endsWith(".json") || name.endsWith(".jsonl")) {
+      sink = new JsonMetricsSink(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), Charsets.UTF_8)));
+    } else if (name.endsWith(".bin")) {
+      sink = new BinaryMetricsSink(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f))));
+    } else {
+      throw new IllegalArgumentException("Can't tell the metrics format of " + f + " (use .csv, .jsonl or .bin)");
+    }
+    return new AsyncMetricsSink(sink);
+  }
+}
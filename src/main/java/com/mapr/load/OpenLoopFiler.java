@@ -0,0 +1,416 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decouples issuing operations from completing them.  The generator thread acts as a
+ * dispatcher: read() and write() just queue the operation and return so that arrivals stay on
+ * the Poisson schedule no matter how slow the device is.  A pool of I/O threads, each with its
+ * own worker filer, takes operations off the queue.  The workers measure latency from the
+ * scheduled time of each operation so queueing delay shows up in the tail instead of being
+ * hidden by a stalled generator (coordinated omission).
+ *
+ * The dispatcher never waits at segment boundaries.  Each operation belongs to the segment it
+ * was scheduled in and a segment is reported, in order, by whichever thread completes its last
+ * operation.  Call flush() to wait for the outstanding reports at the end of a run.
+ */
+public class OpenLoopFiler implements Filer {
+  // how many queued operations we tolerate before deciding the device can't keep up
+  private static final int DEFAULT_MAX_BACKLOG = 1000000;
+
+  private final List<BaseFiler> workers;
+  private final List<Lane> lanes = Lists.newArrayList();
+  private final List<Thread> threads = Lists.newArrayList();
+  private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+
+  private final AtomicInteger pending = new AtomicInteger();
+  private final Object idle = new Object();
+  private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+  // segments that have not been reported yet, oldest first
+  private final Queue<Segment> open = new ConcurrentLinkedQueue<Segment>();
+  private final Object reportLock = new Object();
+  // the segment the dispatcher is in, null between segments
+  private Segment current;
+  private volatile LatencySummary[] reported = emptySummaries(0);
+
+  private final int maxBacklog;
+
+  private double t0 = System.nanoTime() * 1e-9;
+
+  // where merged segment metrics go, null to print them
+  private MetricsSink metricsSink;
+
+  public OpenLoopFiler(List<? extends BaseFiler> workers) {
+    this(workers, DEFAULT_MAX_BACKLOG);
+  }
+
+  /**
+   * @param workers     The filers that do the actual I/O, one thread is started for each.
+   * @param maxBacklog  How many operations may be waiting before the run is aborted.
+   */
+  public OpenLoopFiler(List<? extends BaseFiler> workers, int maxBacklog) {
+    Preconditions.checkArgument(workers.size() > 0, "Need at least one worker");
+    this.workers = Lists.newArrayList(workers);
+    this.maxBacklog = maxBacklog;
+
+    int id = 0;
+    for (final BaseFiler worker : this.workers) {
+      worker.setLatencyFromSchedule(true);
+      // the merged report replaces the workers' own
+      worker.setReporting(false);
+      final Lane lane = new Lane(worker);
+      lanes.add(lane);
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          work(lane);
+        }
+      }, "open-loop-" + id++);
+      thread.setDaemon(true);
+      thread.start();
+      threads.add(thread);
+    }
+  }
+
+  @Override
+  public void read(double t, int blockSize) throws IOException {
+    dispatch(Op.READ, t, blockSize);
+  }
+
+  @Override
+  public void write(double t, int blockSize) throws IOException {
+    dispatch(Op.WRITE, t, blockSize);
+  }
+
+  private void dispatch(Op op, double t, int blockSize) throws IOException {
+    checkFailure();
+    if (current == null) {
+      segmentStart(t);
+    }
+    final int backlog = pending.incrementAndGet();
+    if (backlog > maxBacklog) {
+      pending.decrementAndGet();
+      throw new IOException(String.format("Open loop backlog exceeded %d operations ... aborting run", maxBacklog));
+    }
+    current.maxPending = Math.max(current.maxPending, backlog);
+    current.pending.incrementAndGet();
+    queue.add(new Request(op, t, blockSize, current));
+  }
+
+  private void work(Lane lane) {
+    try {
+      while (true) {
+        Request r = queue.take();
+        try {
+          join(lane, r.segment);
+          if (failure.get() == null) {
+            if (r.op == Op.READ) {
+              lane.worker.read(r.t, r.blockSize);
+            } else {
+              lane.worker.write(r.t, r.blockSize);
+            }
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        } finally {
+          if (r.segment.pending.decrementAndGet() == 0) {
+            report();
+          }
+          if (pending.decrementAndGet() == 0) {
+            synchronized (idle) {
+              idle.notifyAll();
+            }
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      // shutdown
+    }
+  }
+
+  /**
+   * Moves a worker into the segment of its next operation.  Everything the worker recorded
+   * so far belongs to the segment it was in, because it does one operation at a time.
+   */
+  private void join(Lane lane, Segment segment) {
+    synchronized (lane) {
+      if (lane.segment != segment) {
+        if (lane.segment != null) {
+          leave(lane, lane.segment);
+        }
+        lane.segment = segment;
+      }
+    }
+  }
+
+  /**
+   * Adds what a worker recorded to a segment and starts the worker afresh.  Must hold the lane.
+   */
+  private void leave(Lane lane, Segment segment) {
+    BaseFiler worker = lane.worker;
+    worker.segmentEnd(worker.currentTime());
+    segment.add(worker);
+    worker.segmentStart(worker.currentTime());
+    lane.segment = null;
+  }
+
+  /**
+   * Reports every segment at the head of the queue that has ended and whose operations have
+   * all completed.
+   */
+  private void report() {
+    synchronized (reportLock) {
+      while (!open.isEmpty() && open.peek().pending.get() == 0) {
+        report(open.poll());
+      }
+    }
+    synchronized (idle) {
+      idle.notifyAll();
+    }
+  }
+
+  private void report(Segment segment) {
+    for (Lane lane : lanes) {
+      synchronized (lane) {
+        // idle workers have nothing but the dispatcher's pacing to add
+        if (lane.segment == segment || lane.segment == null) {
+          leave(lane, segment);
+        }
+      }
+    }
+    reported = segment.summaries;
+
+    final double elapsed = System.nanoTime() * 1e-9 - t0;
+    if (metricsSink != null) {
+      SegmentMetrics m = new SegmentMetrics(elapsed, segment.end, summary(Op.WRITE), segment.summaries[Op.WRITE.ordinal()],
+        summary(Op.READ), segment.summaries[Op.READ.ordinal()], segment.slippage);
+      m.setPacingError(segment.pacing);
+      if (segment.counts != null) {
+        segment.counts.apply(m);
+      }
+      BaseFiler.writeMetrics(metricsSink, m);
+      return;
+    }
+    if (segment.pacing.size() > 0) {
+      System.out.println(RealTimeFiler.formatPacing(segment.pacing));
+    }
+    if (segment.counts != null) {
+      System.out.println(segment.counts.format());
+    }
+    System.out.printf("%s %5d\n", BaseFiler.formatSegment(elapsed, segment.end,
+      summary(Op.WRITE), segment.summaries[Op.WRITE.ordinal()], summary(Op.READ), segment.summaries[Op.READ.ordinal()]),
+      segment.maxPending);
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable e = failure.get();
+    if (e != null) {
+      throw new IOException("Open loop worker failed", e);
+    }
+  }
+
+  /**
+   * Waits until every queued operation has completed and every ended segment has been
+   * reported.
+   */
+  public void flush() throws InterruptedException {
+    synchronized (idle) {
+      while (pending.get() > 0 || (!open.isEmpty() && open.peek() != current)) {
+        idle.wait();
+      }
+    }
+  }
+
+  /**
+   * Stops the I/O threads.  Operations still queued are dropped.
+   */
+  public void shutdown() {
+    for (Thread thread : threads) {
+      thread.interrupt();
+    }
+  }
+
+  @Override
+  public void segmentStart(double t) {
+    current = new Segment(t);
+    open.add(current);
+  }
+
+  /**
+   * Ends the segment without waiting for its operations.  The segment is reported once the
+   * last of them completes.
+   *
+   * @throws IllegalStateException If an operation has failed.
+   */
+  @Override
+  public void segmentEnd(double t) {
+    if (current != null) {
+      Segment ended = current;
+      current = null;
+      ended.end = t;
+      // drop the dispatcher's hold on the segment
+      if (ended.pending.decrementAndGet() == 0) {
+        report();
+      }
+    }
+    Throwable failed = failure.get();
+    if (failed != null) {
+      throw new IllegalStateException("Open loop worker failed", failed);
+    }
+  }
+
+  /**
+   * Sends the merged metrics of each segment to a sink instead of printing them.
+   */
+  public void setMetricsSink(MetricsSink metricsSink) {
+    this.metricsSink = metricsSink;
+  }
+
+  @Override
+  public double currentTime() {
+    return workers.get(0).currentTime();
+  }
+
+  @Override
+  public void sleep(double delay) throws InterruptedException {
+    workers.get(0).sleep(delay);
+  }
+
+  @Override
+  public void recordLatency(Op kind, double latency, double bytes) {
+    throw new UnsupportedOperationException("Latency is recorded by the worker filers");
+  }
+
+  @Override
+  public double quantiles(Op kind, int nines) {
+    return summary(kind).quantiles(nines);
+  }
+
+  @Override
+  public double quantile(Op kind, double q) {
+    return summary(kind).quantile(q);
+  }
+
+  @Override
+  public long latencySamples(Op kind) {
+    long n = 0;
+    for (BaseFiler worker : workers) {
+      n += worker.latencySamples(kind);
+    }
+    return n;
+  }
+
+  /**
+   * Waits for the outstanding operations and reports before resetting the workers.
+   */
+  @Override
+  public void reset(double t) {
+    try {
+      flush();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (BaseFiler worker : workers) {
+      worker.reset(t);
+    }
+  }
+
+  /**
+   * Returns a merged summary of all workers since their last reset.
+   */
+  @Override
+  public LatencySummary summary(Op kind) {
+    LatencySummary r = new LatencySummary();
+    for (BaseFiler worker : workers) {
+      r.merge(worker.summary(kind));
+    }
+    return r;
+  }
+
+  /**
+   * Returns the merged summary of the most recently reported segment.
+   */
+  @Override
+  public LatencySummary segmentSummary(Op kind) {
+    return reported[kind.ordinal()];
+  }
+
+  private static LatencySummary[] emptySummaries(double t) {
+    LatencySummary[] r = new LatencySummary[Op.values().length];
+    for (Op op : Op.values()) {
+      r[op.ordinal()] = new LatencySummary();
+      r[op.ordinal()].reset(t);
+    }
+    return r;
+  }
+
+  private static class Request {
+    private final Op op;
+    private final double t;
+    private final int blockSize;
+    private final Segment segment;
+
+    private Request(Op op, double t, int blockSize, Segment segment) {
+      this.op = op;
+      this.t = t;
+      this.blockSize = blockSize;
+      this.segment = segment;
+    }
+  }
+
+  /**
+   * An I/O thread's worker and the segment whose operations it is recording.
+   */
+  private static class Lane {
+    private final BaseFiler worker;
+    private Segment segment;
+
+    private Lane(BaseFiler worker) {
+      this.worker = worker;
+    }
+  }
+
+  /**
+   * Collects what the workers recorded for one segment until it can be reported.
+   */
+  private static class Segment {
+    // one for each operation not yet completed plus one until the dispatcher ends the segment
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final LatencySummary[] summaries;
+    private final LatencyHistogram slippage = new LatencyHistogram();
+    private final LatencyHistogram pacing = new LatencyHistogram();
+    private SegmentMetrics.Counts counts;
+    private double end;
+    private int maxPending;
+
+    private Segment(double start) {
+      summaries = emptySummaries(start);
+    }
+
+    private synchronized void add(BaseFiler worker) {
+      for (Op op : Op.values()) {
+        summaries[op.ordinal()].addSamples(worker.segmentSummary(op));
+      }
+      slippage.merge(worker.segmentSlippage());
+      pacing.merge(worker.segmentPacingError());
+      SegmentMetrics.Counts c = worker.segmentCounts();
+      if (c != null) {
+        if (counts == null) {
+          counts = new SegmentMetrics.Counts(0, 0, 0, 0);
+        }
+        counts.add(c);
+      }
+    }
+  }
+}
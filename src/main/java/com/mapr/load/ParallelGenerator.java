@@ -0,0 +1,286 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Generates load for a single trace using several threads.  Each of N workers runs its own
+ * Generator against its own Filer at 1/N of the requested rate so that the total load matches
+ * the trace.  Workers wait for each other at every segment boundary so that segments start
+ * together, and a single merged report is printed at the end of each segment in place of the
+ * workers' own reports.
+ */
+public class ParallelGenerator {
+  private final List<Filer> workers;
+  private final List<Generator> generators = Lists.newArrayList();
+
+  // total seconds in the trace
+  private double totalLength = 0;
+
+  private double t0 = System.nanoTime() * 1e-9;
+
+  // where merged segment metrics go, null to print them
+  private MetricsSink metricsSink;
+
+  public ParallelGenerator(List<? extends Filer> workers) {
+    Preconditions.checkArgument(workers.size() > 0, "Need at least one worker");
+    this.workers = Lists.newArrayList(workers);
+    for (int i = 0; i < workers.size(); i++) {
+      generators.add(new Generator());
+    }
+  }
+
+  /**
+   * Adds a set of trace events to all workers.
+   * @param trace   The load segments to add to the trace.  Every worker replays the trace, so it
+   *                has to be possible to iterate over it more than once.
+   */
+  public void addTrace(Collection<Generator.LoadSegment> trace) {
+    for (Generator generator : generators) {
+      generator.addTrace(trace);
+    }
+    for (Generator.LoadSegment segment : trace) {
+      totalLength += segment.getSegmentDuration();
+    }
+  }
+
+  /**
+   * Sets the block size in bytes for reading and writing.
+   * @param blockSize  The size in bytes.
+   */
+  public void setBlockSize(int blockSize) {
+    for (Generator generator : generators) {
+      generator.setBlockSize(blockSize);
+    }
+  }
+
+  /**
+   * Has each worker's generator precompute its schedule on a background thread.
+   * @param depth  How many batches of events to keep ready, zero to compute them inline.
+   */
+  public void setPrecomputeDepth(int depth) {
+    for (Generator generator : generators) {
+      generator.setPrecomputeDepth(depth);
+    }
+  }
+
+  /**
+   * Sends the merged metrics of each segment to a sink instead of printing them.
+   */
+  public void setMetricsSink(MetricsSink metricsSink) {
+    this.metricsSink = metricsSink;
+  }
+
+  /**
+   * Resets the per-trace statistics of all workers.
+   */
+  public void reset() {
+    for (Filer worker : workers) {
+      worker.reset(worker.currentTime());
+    }
+  }
+
+  /**
+   * Generate events for the entire trace.
+   *
+   * @param scale    How much faster or slower the combined load should be relative to the trace.
+   */
+  public void generate(double scale) throws InterruptedException, IOException {
+    generate(0, totalLength, scale);
+  }
+
+  /**
+   * Generates read and write activity on all workers for a specified time period.
+   *
+   * @param offset   How far into the trace to go before generating events.
+   * @param duration How many seconds of activity to generate.
+   * @param scale    Rate multiplier for the combined load.  Each worker gets scale / N.
+   * @throws InterruptedException If a timer is aborted.
+   * @throws IOException If any worker fails.
+   */
+  public void generate(final double offset, final double duration, double scale) throws InterruptedException, IOException {
+    final int n = workers.size();
+    final double workerScale = scale / n;
+
+    // a failed worker deregisters so that the others are never left waiting for it
+    final AtomicBoolean aborted = new AtomicBoolean(false);
+    final SegmentReport report = new SegmentReport();
+    final Phaser start = new Phaser(n);
+    final Phaser end = new Phaser(n) {
+      @Override
+      protected boolean onAdvance(int phase, int parties) {
+        if (parties > 0 && !aborted.get()) {
+          try {
+            report.run();
+          } catch (RuntimeException e) {
+            // throwing here would leave the phaser stuck, so hand the failure to the workers
+            report.failure = e;
+            aborted.set(true);
+          }
+        }
+        return parties == 0;
+      }
+    };
+
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int i = 0; i < n; i++) {
+      final Generator generator = generators.get(i);
+      final Filer actor = new SyncedFiler(workers.get(i), start, end, aborted, report);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          try {
+            generator.generate(offset, duration, workerScale, actor);
+          } catch (Exception e) {
+            aborted.set(true);
+            start.arriveAndDeregister();
+            end.arriveAndDeregister();
+            throw e;
+          }
+          return null;
+        }
+      });
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(n);
+    try {
+      List<Future<Void>> results = pool.invokeAll(tasks);
+      Throwable failure = report.failure;
+      for (Future<Void> result : results) {
+        try {
+          result.get();
+        } catch (ExecutionException e) {
+          // an aborted worker is only a symptom, prefer to report the root cause
+          if (failure == null || failure instanceof WorkerAbortedException) {
+            failure = e.getCause();
+          }
+        }
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      } else if (failure instanceof InterruptedException) {
+        throw (InterruptedException) failure;
+      } else if (failure != null) {
+        throw new IOException("Worker failed", failure);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns a merged summary of one kind of operation across all workers since their last reset.
+   */
+  public LatencySummary summary(Filer.Op kind) {
+    LatencySummary r = new LatencySummary();
+    for (Filer worker : workers) {
+      r.merge(worker.summary(kind));
+    }
+    return r;
+  }
+
+  /**
+   * Runs on the last worker to arrive at the end of a segment.  All other workers are blocked at
+   * that point so their summaries are stable.
+   */
+  private class SegmentReport implements Runnable {
+    private volatile double t = Double.NEGATIVE_INFINITY;
+
+    // set if reporting failed, which aborts the run
+    private volatile RuntimeException failure;
+
+    synchronized void segmentEnded(double t) {
+      this.t = Math.max(this.t, t);
+    }
+
+    @Override
+    public void run() {
+      final double elapsed = System.nanoTime() * 1e-9 - t0;
+      if (metricsSink != null) {
+        BaseFiler.writeMetrics(metricsSink, SegmentMetrics.merge(elapsed, t, workers));
+      } else {
+        String pacing = RealTimeFiler.formatPacing(workers);
+        if (pacing != null) {
+          System.out.println(pacing);
+        }
+        SegmentMetrics.Counts counts = SegmentMetrics.Counts.merge(workers);
+        if (counts != null) {
+          System.out.println(counts.format());
+        }
+        System.out.println(BaseFiler.formatSegment(elapsed, t, workers));
+      }
+      t = Double.NEGATIVE_INFINITY;
+    }
+  }
+
+  /**
+   * Thrown in a worker when another worker has failed.
+   */
+  private static class WorkerAbortedException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    private WorkerAbortedException(Throwable cause) {
+      super("Aborted because another worker failed", cause);
+    }
+  }
+
+  /**
+   * Passes everything through to a worker's filer except that segment boundaries are
+   * synchronized with the other workers.
+   */
+  private static class SyncedFiler extends ForwardingFiler {
+    private final Phaser start;
+    private final Phaser end;
+    private final AtomicBoolean aborted;
+    private final SegmentReport report;
+
+    private SyncedFiler(Filer delegate, Phaser start, Phaser end, AtomicBoolean aborted, SegmentReport report) {
+      super(delegate);
+      if (delegate instanceof BaseFiler) {
+        // the merged report replaces the worker's own
+        ((BaseFiler) delegate).setReporting(false);
+      }
+      this.start = start;
+      this.end = end;
+      this.aborted = aborted;
+      this.report = report;
+    }
+
+    @Override
+    public void segmentStart(double t) {
+      await(start);
+      delegate.segmentStart(t);
+    }
+
+    @Override
+    public void segmentEnd(double t) {
+      // the worker still ends its segment so that it can finish outstanding work and harvest
+      delegate.segmentEnd(t);
+      report.segmentEnded(t);
+      await(end);
+    }
+
+    private void await(Phaser phaser) {
+      try {
+        phaser.awaitAdvanceInterruptibly(phaser.arrive());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new WorkerAbortedException(e);
+      }
+      if (aborted.get()) {
+        throw new WorkerAbortedException(null);
+      }
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.mapr.generate.FastRandom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lays out a file before a run so that reads have data to find from the start and the run
+ * measures steady state I/O rather than the file system allocating blocks.  Each block starts
+ * with its block number, as RandomFiler writes them, so reads can check what they get.
+ *
+ * The file is written with large sequential writes from several threads, each taking a
+ * contiguous stretch, and then forced to disk.  A file that already has the right size and
+ * headers is left alone so that repeated runs don't pay for prefilling every time.
+ */
+public class Prefill {
+  // blocks are written this many bytes at a time
+  private static final int CHUNK = 1 << 20;
+
+  // blocks whose headers are checked to decide whether a file is already laid out
+  private static final int PROBES = 64;
+
+  private Prefill() {
+  }
+
+  /**
+   * Makes sure a file holds at least a number of valid blocks, writing them if need be.  This
+   * returns only once the data is on disk.
+   *
+   * @param f          The file.
+   * @param blocks     How many blocks it should hold.
+   * @param blockSize  Bytes per block.
+   * @param threads    How many threads write at once.
+   * @return True if the file had to be written, false if it was already valid.
+   */
+  public static boolean fill(File f, final long blocks, final int blockSize, int threads) throws IOException {
+    Preconditions.checkArgument(blocks > 0 && blockSize >= 8, "Need at least one block of at least 8 bytes");
+    Preconditions.checkArgument(threads > 0, "Need at least one thread, got %s", threads);
+
+    final FileChannel channel = new RandomAccessFile(f, "rw").getChannel();
+    try {
+      if (isValid(channel, blocks, blockSize)) {
+        return false;
+      }
+
+      // stretches are whole chunks so no two threads share a write
+      final long blocksPerChunk = Math.max(1, CHUNK / blockSize);
+      final long chunks = (blocks + blocksPerChunk - 1) / blocksPerChunk;
+      final long chunksPerThread = (chunks + threads - 1) / threads;
+
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<Void>> writers = Lists.newArrayList();
+        for (int i = 0; i < threads; i++) {
+          final long first = Math.min(blocks, i * chunksPerThread * blocksPerChunk);
+          final long end = Math.min(blocks, (i + 1) * chunksPerThread * blocksPerChunk);
+          writers.add(pool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              write(channel, first, end, (int) blocksPerChunk, blockSize);
+              return null;
+            }
+          }));
+        }
+        for (Future<Void> writer : writers) {
+          writer.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while prefilling " + f, e);
+      } catch (ExecutionException e) {
+        throw new IOException("Could not prefill " + f, e.getCause());
+      } finally {
+        pool.shutdownNow();
+      }
+      channel.force(true);
+      return true;
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static void write(FileChannel channel, long first, long end, int blocksPerChunk, int blockSize) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocateDirect(blocksPerChunk * blockSize);
+    byte[] content = new byte[buf.capacity()];
+    new FastRandom().nextBytes(content);
+    buf.put(content);
+
+    for (long block = first; block < end; block += blocksPerChunk) {
+      final int n = (int) Math.min(blocksPerChunk, end - block);
+      for (int i = 0; i < n; i++) {
+        buf.putLong(i * blockSize, block + i);
+      }
+      buf.clear();
+      buf.limit(n * blockSize);
+      final long position = block * blockSize;
+      while (buf.hasRemaining()) {
+        channel.write(buf, position + buf.position());
+      }
+    }
+  }
+
+  /**
+   * Checks the size of a file and the headers of a sample of its blocks, always including the
+   * first and the last.
+   */
+  static boolean isValid(FileChannel channel, long blocks, int blockSize) throws IOException {
+    if (channel.size() < blocks * blockSize) {
+      return false;
+    }
+    ByteBuffer header = ByteBuffer.allocate(8);
+    Random rand = new FastRandom();
+    for (int i = 0; i < PROBES; i++) {
+      final long block;
+      if (i == 0) {
+        block = 0;
+      } else if (i == 1) {
+        block = blocks - 1;
+      } else {
+        block = (long) (rand.nextDouble() * blocks);
+      }
+      header.clear();
+      channel.read(header, block * blockSize);
+      if (header.getLong(0) != block) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -1,6 +1,8 @@
 package com.mapr.load;
 
+import com.google.common.base.Preconditions;
 import com.mapr.generate.ChineseRestaurant;
+import com.mapr.generate.FastRandom;
 import com.mapr.generate.Sampler;
 
 import java.io.File;
@@ -10,20 +12,47 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Adds power law distributed writes to a filer chain.
+ * Adds power law distributed writes to a filer chain.  Reads are uniform over the file unless a
+ * read sampler is set, in which case they can follow a power law as well.
  */
 public class RandomFiler extends RealTimeFiler {
-  private double sequential = 0;
-  private double writes = 0;
+  // per segment counts for the sequential and cache hit fractions
+  private final AtomicLong writes = new AtomicLong();
+  private final AtomicLong sequentialWrites = new AtomicLong();
+  private final AtomicLong reads = new AtomicLong();
+  private final AtomicLong cacheHits = new AtomicLong();
 
-  private Sampler<Integer> sampler;
-  private ByteBuffer buf;
+  // with several threads writing, one further along the file can land first and leave a hole,
+  // so writes count as in flight from when their block is chosen until they have landed
+  private AtomicInteger writesInFlight = new AtomicInteger();
+
+  private final Sampler<Integer> sampler;
+
+  // null means uniform reads
+  private Sampler<Integer> readSampler;
+
+  // samplers aren't thread safe and the read sampler may share state with the write sampler,
+  // so both are used while holding the write sampler's lock, which also lets filers share it
+
+  // reads faster than this are counted as cache hits
+  private double cacheHitThreshold = 100e-6;
   private FileChannel raf;
-  private Random rand = new Random();
 
-  private double t0 = -1;
+  // non-null when I/O bypasses the page cache
+  private final DirectIo direct;
+
+  // each thread has its own buffer and random numbers so that a filer can be shared
+  private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+  private final ThreadLocal<Random> rand = new ThreadLocal<Random>() {
+    @Override
+    protected Random initialValue() {
+      return new FastRandom();
+    }
+  };
 
   public static RandomFiler create(File f) throws IOException {
     return new RandomFiler(f, new ChineseRestaurant(100000, 0), 1);
@@ -33,75 +62,197 @@ public class RandomFiler extends RealTimeFiler {
     return new RandomFiler(f, new ChineseRestaurant(alpha, discount), timeRate);
   }
 
+  /**
+   * Creates a filer that bypasses the page cache.
+   *
+   * @throws IOException  If direct I/O isn't supported by this JDK or the file system holding f.
+   */
+  public static RandomFiler createDirect(File f, double alpha, double discount, double timeRate) throws IOException {
+    return new RandomFiler(DirectIo.open(f), new ChineseRestaurant(alpha, discount), timeRate);
+  }
+
   public RandomFiler(File f, Sampler<Integer> sampler, double timeRate) throws FileNotFoundException {
     super(timeRate);
     System.out.printf("%s\n", f);
     raf = new RandomAccessFile(f, "rw").getChannel();
     this.sampler = sampler;
+    this.direct = null;
   }
 
-  int messageSparseCount = 0;
+  public RandomFiler(DirectIo direct, Sampler<Integer> sampler, double timeRate) {
+    super(timeRate);
+    raf = direct.getChannel();
+    this.sampler = sampler;
+    this.direct = direct;
+  }
+
+  /**
+   * Makes reads pick blocks using a sampler.  Sampled ids past the end of the file wrap around.
+   *
+   * @param readSampler  The sampler to use or null for uniform reads.
+   */
+  public void setReadSampler(Sampler<Integer> readSampler) {
+    this.readSampler = readSampler;
+  }
+
+  /**
+   * Makes reads follow a power law over a hot set that is independent of the writes.
+   */
+  public void useHotSetReads(double alpha, double discount) {
+    setReadSampler(new ChineseRestaurant(alpha, discount));
+  }
+
+  /**
+   * Makes reads favor the same blocks that writes favor.  Until the first write, reads are
+   * uniform.
+   */
+  public void useWritePopularityForReads() {
+    Preconditions.checkState(sampler instanceof ChineseRestaurant, "Write sampler has no popularity to share");
+    final ChineseRestaurant writes = (ChineseRestaurant) sampler;
+    final Sampler<Integer> popularity = writes.popularity();
+    setReadSampler(new Sampler<Integer>() {
+      @Override
+      public Integer sample() {
+        // reads are uniform until the first write gives them a popularity to follow
+        return writes.count() > 0 ? popularity.sample() : rand.get().nextInt(Integer.MAX_VALUE);
+      }
+    });
+  }
+
+  /**
+   * Lets this filer see the writes of another filer that writes the same file using the same
+   * sampler, so that holes the other filer leaves while writing aren't taken for corruption.
+   */
+  public void shareWritesWith(RandomFiler other) {
+    Preconditions.checkArgument(other.sampler == sampler, "Filers that share a file must share a sampler");
+    writesInFlight = other.writesInFlight;
+  }
+
+  /**
+   * Sets the latency below which a read is assumed to have been served from cache.
+   *
+   * @param seconds  The threshold latency.
+   */
+  public void setCacheHitThreshold(double seconds) {
+    this.cacheHitThreshold = seconds;
+  }
 
   @Override
   public void read(double t, int blockSize) throws IOException {
-    if (t0 < 0) {
-      t0 = this.currentTime();
+    ByteBuffer buf = buffer(blockSize);
+    final int blocks = (int) (raf.size() / blockSize);
+    if (blocks == 0) {
+      throw new IOException("Can't read from an empty file, write or prefill it first");
     }
-    // WATCHOUT: assumes single reader thread!
-    if (buf == null || buf.capacity() != blockSize) {
-      buf = ByteBuffer.allocate(blockSize);
+    // any hole below the size read above is being written by a write that is still in flight
+    final boolean mayBeHole = writesInFlight.get() > 0;
+    long block;
+    if (readSampler == null) {
+      block = rand.get().nextInt(blocks);
+    } else {
+      synchronized (sampler) {
+        block = readSampler.sample() % blocks;
+      }
     }
-    long block = rand.nextInt((int) (raf.size() / blockSize));
-    double t0 = currentTime();
+    double t0 = startTime(t);
+    // latency may run from the schedule, but a cache hit is judged by the read alone
+    final double serviceStart = currentTime();
     buf.position(0);
     buf.limit(blockSize);
     raf.read(buf, block * blockSize);
     buf.flip();
 
-    if (buf.getLong() != block) {
+    final long header = buf.getLong();
+    if (header != block && !(header == 0 && mayBeHole)) {
       throw new IOException("Block has incorrect content");
     }
     double t1 = currentTime();
+    reads.incrementAndGet();
+    if (t1 - serviceStart < cacheHitThreshold) {
+      cacheHits.incrementAndGet();
+    }
     recordLatency(Op.READ, t1 - t0, blockSize);
   }
 
-
   public void write(double t, int blockSize) throws IOException {
-    if (t0 < 0) {
-      t0 = this.currentTime();
-    }
+    ByteBuffer buf = buffer(blockSize);
 
-    // WATCHOUT: assumes single writer thread!
-    if (buf == null || buf.capacity() != blockSize) {
-      buf = ByteBuffer.allocate(blockSize);
-      rand.nextBytes(buf.array());
+    long block;
+    synchronized (sampler) {
+      writesInFlight.incrementAndGet();
+      block = sampler.sample();
     }
 
-    long block = sampler.sample();
+    final double t0;
+    try {
+      writes.incrementAndGet();
+      if (block * blockSize == raf.size()) {
+        sequentialWrites.incrementAndGet();
+      }
 
-    writes++;
-    if (block * blockSize == raf.size()) {
-      sequential += (1 - sequential) / writes;
-    } else {
-      sequential += -sequential / writes;
+      t0 = startTime(t);
+      buf.position(0);
+      buf.putLong(block);
+      buf.limit(blockSize);
+      buf.position(0);
+      raf.write(buf, block * blockSize);
+    } finally {
+      writesInFlight.decrementAndGet();
     }
-
-    double t0 = currentTime();
-    buf.position(0);
-    buf.putLong(block);
-    buf.limit(blockSize);
-    buf.position(0);
-    raf.write(buf, block * blockSize);
     double t1 = currentTime();
     recordLatency(Op.WRITE, t1 - t0, blockSize);
   }
 
+  /**
+   * Returns this thread's buffer, filled with random bytes.  With direct I/O this is an aligned
+   * direct buffer from the pool so that the JDK doesn't copy through a temporary buffer.
+   */
+  private ByteBuffer buffer(int blockSize) {
+    ByteBuffer buf = buffers.get();
+    if (buf == null || buf.capacity() != blockSize) {
+      byte[] content = new byte[blockSize];
+      rand.get().nextBytes(content);
+      if (direct == null) {
+        buf = ByteBuffer.wrap(content);
+      } else {
+        if (buf != null) {
+          direct.release(buf);
+        }
+        buf = direct.acquire(blockSize);
+        buf.put(content);
+      }
+      buffers.set(buf);
+    }
+    return buf;
+  }
+
+  @Override
+  public void segmentStart(double t) {
+    // counts are kept until the next segment starts so that a merged report can still see them
+    sequentialWrites.set(0);
+    writes.set(0);
+    reads.set(0);
+    cacheHits.set(0);
+    super.segmentStart(t);
+  }
+
   @Override
   public void segmentEnd(double t) {
-    System.out.printf("sequential %% = %.3f\n", sequential);
-    sequential = 0;
-    writes = 0;
+    if (isPrinting()) {
+      System.out.println(segmentCounts().format());
+    }
+    super.segmentEnd(t);
+  }
 
-    super.segmentEnd(t);    //To change body of overridden methods use File | Settings | File Templates.
+  @Override
+  SegmentMetrics.Counts segmentCounts() {
+    return new SegmentMetrics.Counts(writes.get(), sequentialWrites.get(), reads.get(), cacheHits.get());
+  }
+
+  @Override
+  protected SegmentMetrics segmentMetrics(double elapsed, double t) {
+    SegmentMetrics m = super.segmentMetrics(elapsed, t);
+    segmentCounts().apply(m);
+    return m;
   }
 }
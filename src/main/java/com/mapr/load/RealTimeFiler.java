@@ -1,15 +1,53 @@
 package com.mapr.load;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * Adds real-time behavior.
+ *
+ * How waits are done is selectable.  Plain sleeps are only good to a millisecond or so which
+ * turns a fast Poisson process into bursts.  The park strategies park for most of a wait and
+ * then spin or yield through the last stretch so that operations go out within microseconds
+ * of their scheduled time at the cost of a busy CPU.
+ *
+ * The error of each wait (how far from the deadline we woke up) is kept per segment and
+ * reported along with the segment.
  */
 public class RealTimeFiler extends BaseFiler {
+  public enum Pacing {
+    /**
+     * Thread.sleep to the nearest millisecond, waits under 20ms are skipped entirely.
+     */
+    SLEEP,
+    /**
+     * LockSupport.parkNanos, then a busy spin for the last stretch.
+     */
+    PARK_SPIN,
+    /**
+     * LockSupport.parkNanos, then Thread.yield for the last stretch.
+     */
+    PARK_YIELD
+  }
+
+  // waits shorter than this aren't worth a Thread.sleep
+  private static final double MIN_SLEEP = 20e-3;
+
   private double speedup;
+  private Pacing pacing = Pacing.SLEEP;
 
   public RealTimeFiler(double speedup) {
     this.speedup = speedup;
   }
 
+  /**
+   * Selects how waits are done.
+   */
+  public void setPacing(Pacing pacing) {
+    this.pacing = pacing;
+  }
+
   @Override
   public double currentTime() {
     return System.nanoTime() * speedup / 1e9;
@@ -17,10 +55,89 @@ public class RealTimeFiler extends BaseFiler {
 
   @Override
   public void sleep(double delay) throws InterruptedException {
-    Thread.sleep((long) (delay * 1e3 / speedup));
+    final long start = System.nanoTime();
+    final long deadline = start + (long) (delay * 1e9 / speedup);
+    switch (pacing) {
+      case SLEEP:
+        if (delay > MIN_SLEEP) {
+          Thread.sleep((long) (delay * 1e3 / speedup));
+        }
+        break;
+      case PARK_SPIN:
+      case PARK_YIELD:
+        park(deadline, pacing == Pacing.PARK_YIELD);
+        break;
+    }
+    recordPacingError(Math.abs(System.nanoTime() - deadline) * 1e-9);
+  }
+
+  private static void park(long deadline, boolean yield) throws InterruptedException {
+    final long spin = Calibration.SPIN_NANOS;
+    long remaining = deadline - System.nanoTime();
+    while (remaining > spin) {
+      LockSupport.parkNanos(remaining - spin);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      remaining = deadline - System.nanoTime();
+    }
+    while (System.nanoTime() < deadline) {
+      if (yield) {
+        Thread.yield();
+      }
+    }
+  }
+
+  @Override
+  public void segmentEnd(double t) {
+    LatencyHistogram pacingError = segmentPacingError();
+    if (isPrinting() && pacingError.size() > 0) {
+      System.out.println(formatPacing(pacingError));
+    }
+    super.segmentEnd(t);
+  }
+
+  /**
+   * Formats the combined pacing error of those filers that have one, or returns null if there
+   * were no waits.
+   */
+  static String formatPacing(List<? extends Filer> filers) {
+    LatencyHistogram merged = new LatencyHistogram();
+    for (Filer filer : filers) {
+      if (filer instanceof BaseFiler) {
+        merged.merge(((BaseFiler) filer).segmentPacingError());
+      }
+    }
+    return merged.size() > 0 ? formatPacing(merged) : null;
+  }
+
+  static String formatPacing(LatencyHistogram error) {
+    return String.format("pacing error (us) mean = %.1f, p50 = %.1f, p99 = %.1f, max = %.1f",
+      error.mean() * 1e6, error.quantile(0.5) * 1e6, error.quantile(0.99) * 1e6, error.max() * 1e6);
   }
 
   public static RealTimeFiler create(double speedup) {
     return new RealTimeFiler(speedup);
   }
+
+  /**
+   * Measures how far parkNanos overshoots on this machine.  Waits are parked until about this
+   * much time remains and then finished by spinning.
+   */
+  private static class Calibration {
+    private static final long SPIN_NANOS = calibrate();
+
+    private static long calibrate() {
+      final int n = 50;
+      long[] overshoot = new long[n];
+      for (int i = 0; i < n; i++) {
+        final long t0 = System.nanoTime();
+        LockSupport.parkNanos(20000);
+        overshoot[i] = System.nanoTime() - t0 - 20000;
+      }
+      Arrays.sort(overshoot);
+      // a high percentile, but bounded so a noisy start can't leave us spinning for ages
+      return Math.max(10000, Math.min(2000000, overshoot[n * 9 / 10]));
+    }
+  }
 }
@@ -0,0 +1,258 @@
+package com.mapr.load;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The fixed set of numbers reported for each segment.  Every sink writes the same columns in
+ * the same order so output from different runs and formats can be lined up.
+ *
+ * Latency columns describe the segment alone and are in seconds.  They are NaN when there were
+ * no operations of that kind, as are slippage and the filer specific columns when they don't
+ * apply.  The total columns count operations since the last reset.
+ */
+public class SegmentMetrics {
+  private static final String[] OP_COLUMNS = {"count", "total", "rate", "mean", "p50", "p90", "p99", "p999", "p9999", "max"};
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 0.9999};
+
+  private static final List<String> COLUMNS;
+  private static final boolean[] COUNTS;
+
+  private static final int ELAPSED = 0;
+  private static final int TIME = 1;
+  private static final int OPS = 2;
+  private static final int SLIPPAGE = OPS + 2 * OP_COLUMNS.length;
+  private static final int SEQUENTIAL = SLIPPAGE + 3;
+  private static final int CACHE_HIT = SEQUENTIAL + 1;
+  private static final int PACING = CACHE_HIT + 1;
+
+  static {
+    List<String> columns = Lists.newArrayList("elapsed", "time");
+    for (Filer.Op op : new Filer.Op[]{Filer.Op.WRITE, Filer.Op.READ}) {
+      for (String column : OP_COLUMNS) {
+        columns.add(op.name().toLowerCase() + "_" + column);
+      }
+    }
+    columns.add("slippage_mean");
+    columns.add("slippage_p99");
+    columns.add("slippage_max");
+    columns.add("sequential");
+    columns.add("cache_hit");
+    columns.add("pacing_mean");
+    columns.add("pacing_p99");
+    columns.add("pacing_max");
+    COLUMNS = ImmutableList.copyOf(columns);
+
+    COUNTS = new boolean[COLUMNS.size()];
+    COUNTS[OPS] = COUNTS[OPS + 1] = true;
+    COUNTS[OPS + OP_COLUMNS.length] = COUNTS[OPS + OP_COLUMNS.length + 1] = true;
+  }
+
+  private final double[] values = new double[COLUMNS.size()];
+
+  /**
+   * Collects the metrics for one segment.
+   *
+   * @param elapsed   Wall clock seconds since the run started.
+   * @param t         The time at the end of the segment.
+   * @param writes    Write summary since the last reset.
+   * @param segmentWrites  Write summary for this segment.
+   * @param reads     Read summary since the last reset.
+   * @param segmentReads   Read summary for this segment.
+   * @param slippage  How late operations were issued in this segment, null if not known.
+   */
+  public SegmentMetrics(double elapsed, double t, LatencySummary writes, LatencySummary segmentWrites,
+                        LatencySummary reads, LatencySummary segmentReads, LatencyHistogram slippage) {
+    values[ELAPSED] = elapsed;
+    values[TIME] = t;
+    setOp(OPS, t, writes, segmentWrites);
+    setOp(OPS + OP_COLUMNS.length, t, reads, segmentReads);
+    setDistribution(SLIPPAGE, slippage);
+    values[SEQUENTIAL] = Double.NaN;
+    values[CACHE_HIT] = Double.NaN;
+    setDistribution(PACING, null);
+  }
+
+  private void setDistribution(int base, LatencyHistogram h) {
+    if (h != null && h.size() > 0) {
+      values[base] = h.mean();
+      values[base + 1] = h.quantile(0.99);
+      values[base + 2] = h.max();
+    } else {
+      values[base] = values[base + 1] = values[base + 2] = Double.NaN;
+    }
+  }
+
+  private void setOp(int base, double t, LatencySummary total, LatencySummary segment) {
+    int i = base;
+    values[i++] = segment.size();
+    values[i++] = total.size();
+    values[i++] = segment.size() > 0 ? segment.meanBlocksPerSecond(t) : 0;
+    values[i++] = segment.size() > 0 ? segment.meanLatency() : Double.NaN;
+    for (double q : QUANTILES) {
+      values[i++] = segment.quantile(q);
+    }
+    values[i] = segment.max();
+  }
+
+  /**
+   * Merges the summaries of several filers into one set of metrics.
+   */
+  static SegmentMetrics merge(double elapsed, double t, List<? extends Filer> filers) {
+    LatencySummary[] trace = new LatencySummary[Filer.Op.values().length];
+    LatencySummary[] segment = new LatencySummary[Filer.Op.values().length];
+    for (Filer.Op op : Filer.Op.values()) {
+      trace[op.ordinal()] = new LatencySummary();
+      segment[op.ordinal()] = new LatencySummary();
+      for (Filer filer : filers) {
+        trace[op.ordinal()].merge(filer.summary(op));
+        segment[op.ordinal()].merge(filer.segmentSummary(op));
+      }
+    }
+    LatencyHistogram slippage = new LatencyHistogram();
+    LatencyHistogram pacing = new LatencyHistogram();
+    for (Filer filer : filers) {
+      if (filer instanceof BaseFiler) {
+        slippage.merge(((BaseFiler) filer).segmentSlippage());
+        pacing.merge(((BaseFiler) filer).segmentPacingError());
+      }
+    }
+    SegmentMetrics r = new SegmentMetrics(elapsed, t, trace[Filer.Op.WRITE.ordinal()], segment[Filer.Op.WRITE.ordinal()],
+      trace[Filer.Op.READ.ordinal()], segment[Filer.Op.READ.ordinal()], slippage);
+    r.setPacingError(pacing);
+    Counts counts = Counts.merge(filers);
+    if (counts != null) {
+      counts.apply(r);
+    }
+    return r;
+  }
+
+  /**
+   * The fraction of writes in this segment that went to the block after the previous write.
+   */
+  public void setSequentialFraction(double sequential) {
+    values[SEQUENTIAL] = sequential;
+  }
+
+  /**
+   * The fraction of reads in this segment that were fast enough to have come from cache.
+   */
+  public void setCacheHitFraction(double cacheHit) {
+    values[CACHE_HIT] = cacheHit;
+  }
+
+  /**
+   * How far from their deadlines the generator's waits in this segment finished.
+   */
+  public void setPacingError(LatencyHistogram pacing) {
+    setDistribution(PACING, pacing);
+  }
+
+  /**
+   * Returns the names of all columns in the order that sinks write them.
+   */
+  public static List<String> columns() {
+    return COLUMNS;
+  }
+
+  /**
+   * Returns true if a column always holds a whole number.
+   */
+  public static boolean isCount(int column) {
+    return COUNTS[column];
+  }
+
+  public double get(int column) {
+    return values[column];
+  }
+
+  public double get(String column) {
+    int i = COLUMNS.indexOf(column);
+    if (i < 0) {
+      throw new IllegalArgumentException("No such column " + column);
+    }
+    return values[i];
+  }
+
+  /**
+   * The operation counts behind the sequential and cache hit fractions.  Fractions can't be
+   * merged, so filers that report together add up their counts instead.
+   */
+  static class Counts {
+    long writes;
+    long sequentialWrites;
+    long reads;
+    long cacheHits;
+
+    Counts(long writes, long sequentialWrites, long reads, long cacheHits) {
+      this.writes = writes;
+      this.sequentialWrites = sequentialWrites;
+      this.reads = reads;
+      this.cacheHits = cacheHits;
+    }
+
+    /**
+     * Adds up the counts of those filers that keep them, or returns null if none do.
+     */
+    static Counts merge(List<? extends Filer> filers) {
+      Counts r = null;
+      for (Filer filer : filers) {
+        Counts counts = filer instanceof BaseFiler ? ((BaseFiler) filer).segmentCounts() : null;
+        if (counts != null) {
+          if (r == null) {
+            r = new Counts(0, 0, 0, 0);
+          }
+          r.add(counts);
+        }
+      }
+      return r;
+    }
+
+    void add(Counts other) {
+      writes += other.writes;
+      sequentialWrites += other.sequentialWrites;
+      reads += other.reads;
+      cacheHits += other.cacheHits;
+    }
+
+    double sequentialFraction() {
+      return writes > 0 ? (double) sequentialWrites / writes : 0;
+    }
+
+    double cacheHitFraction() {
+      return reads > 0 ? (double) cacheHits / reads : 0;
+    }
+
+    /**
+     * Sets the fractions that there were operations for.
+     */
+    void apply(SegmentMetrics m) {
+      if (writes > 0) {
+        m.setSequentialFraction(sequentialFraction());
+      }
+      if (reads > 0) {
+        m.setCacheHitFraction(cacheHitFraction());
+      }
+    }
+
+    String format() {
+      return String.format("sequential %% = %.3f, cache hit %% = %.3f", sequentialFraction(), cacheHitFraction());
+    }
+
+    void write(DataOutput out) throws IOException {
+      out.writeLong(writes);
+      out.writeLong(sequentialWrites);
+      out.writeLong(reads);
+      out.writeLong(cacheHits);
+    }
+
+    static Counts read(DataInput in) throws IOException {
+      return new Counts(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+    }
+  }
+}
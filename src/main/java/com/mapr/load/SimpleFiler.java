@@ -1,5 +1,7 @@
 package com.mapr.load;
 
+import com.mapr.generate.FastRandom;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -14,7 +16,7 @@ import java.util.Random;
 */
 class SimpleFiler extends RealTimeFiler {
   private OutputStream os;
-  private Random rand = new Random();
+  private Random rand = new FastRandom();
 
   private FileChannel raf;
 
@@ -53,7 +55,7 @@ class SimpleFiler extends RealTimeFiler {
     }
     writes++;
     bytesWritten += blockSize;
-    double t0 = currentTime();
+    double t0 = startTime(t);
     os.write(buf);
     os.flush();
     double t1 = currentTime();
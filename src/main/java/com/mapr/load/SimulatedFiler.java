@@ -0,0 +1,120 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+import com.mapr.generate.FastRandom;
+import com.mapr.generate.Sampler;
+
+import java.util.Random;
+
+/**
+ * A filer that runs in virtual time against a model of a device instead of doing real I/O.
+ * Sleeping just moves the clock forward, so a trace of many hours replays in seconds.
+ *
+ * The device has a number of channels that each serve one operation at a time, fed from a
+ * single FIFO queue.  Each operation arrives at its scheduled time, waits for the first free
+ * channel and then takes a service time drawn from the sampler for its kind.  Its latency is
+ * the time from arrival to completion, so queueing delay is included just as with open-loop
+ * load on a real device.  Operations never hold up the generator.
+ */
+public class SimulatedFiler extends BaseFiler {
+  private final Sampler<Double> readService;
+  private final Sampler<Double> writeService;
+
+  // when each channel next becomes free
+  private final double[] free;
+
+  private double now = 0;
+
+  /**
+   * Creates a device with exponentially distributed service times, the usual M/M/c model.
+   *
+   * @param meanService  Mean service time in seconds for both reads and writes.
+   * @param channels     How many operations the device can serve at once.
+   */
+  public static SimulatedFiler create(double meanService, int channels) {
+    Random rand = new FastRandom();
+    return new SimulatedFiler(exponential(meanService, rand), exponential(meanService, rand), channels);
+  }
+
+  public SimulatedFiler(Sampler<Double> readService, Sampler<Double> writeService, int channels) {
+    Preconditions.checkArgument(channels > 0, "Need at least one channel, got %s", channels);
+    this.readService = readService;
+    this.writeService = writeService;
+    this.free = new double[channels];
+  }
+
+  /**
+   * Exponentially distributed service times.
+   */
+  public static Sampler<Double> exponential(final double mean, final Random rand) {
+    Preconditions.checkArgument(mean > 0, "Mean service time must be positive, got %s", mean);
+    return new Sampler<Double>() {
+      @Override
+      public Double sample() {
+        return -mean * Math.log(1 - rand.nextDouble());
+      }
+    };
+  }
+
+  /**
+   * Log-normally distributed service times, which have the long tail typical of real devices.
+   *
+   * @param median  Median service time.
+   * @param sigma   Standard deviation of the log of the service time.
+   */
+  public static Sampler<Double> logNormal(final double median, final double sigma, final Random rand) {
+    Preconditions.checkArgument(median > 0 && sigma >= 0, "Need a positive median and non-negative sigma");
+    return new Sampler<Double>() {
+      @Override
+      public Double sample() {
+        return median * Math.exp(sigma * rand.nextGaussian());
+      }
+    };
+  }
+
+  /**
+   * The same service time for every operation.
+   */
+  public static Sampler<Double> constant(final double service) {
+    Preconditions.checkArgument(service >= 0, "Service time can't be negative, got %s", service);
+    return new Sampler<Double>() {
+      @Override
+      public Double sample() {
+        return service;
+      }
+    };
+  }
+
+  @Override
+  public void read(double t, int blockSize) {
+    serve(Op.READ, t, readService.sample(), blockSize);
+  }
+
+  @Override
+  public void write(double t, int blockSize) {
+    serve(Op.WRITE, t, writeService.sample(), blockSize);
+  }
+
+  private void serve(Op kind, double arrival, double service, int blockSize) {
+    // arrivals come in order, so the first free channel is the one FIFO order would pick
+    int channel = 0;
+    for (int i = 1; i < free.length; i++) {
+      if (free[i] < free[channel]) {
+        channel = i;
+      }
+    }
+    final double done = Math.max(arrival, free[channel]) + service;
+    free[channel] = done;
+    recordLatency(kind, done - arrival, blockSize);
+  }
+
+  @Override
+  public double currentTime() {
+    return now;
+  }
+
+  @Override
+  public void sleep(double delay) {
+    now += delay;
+  }
+}
@@ -0,0 +1,185 @@
+package com.mapr.load;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A TSV trace that is read lazily while it is being replayed so that traces much longer than
+ * memory, or traces piped in from a live capture, can be used.  A background thread parses
+ * lines into a bounded buffer of segments, and the generator takes segments from that buffer
+ * as it goes.  If the generator gets ahead of the input, it waits.
+ *
+ * A streaming trace can only be iterated once.  Close it to stop the reader if the trace is
+ * abandoned before the end.
+ */
+public class StreamingTrace implements Iterable<Generator.LoadSegment>, Closeable {
+  private static final int DEFAULT_CAPACITY = 10000;
+
+  // marks the end of the input in the buffer
+  private static final Generator.LoadSegment END = new Generator.LoadSegment(0, 0, 0);
+
+  private final Reader input;
+  private final String name;
+  private final BlockingQueue<Generator.LoadSegment> buffer;
+  private volatile IOException failure;
+  private volatile boolean closed = false;
+  private boolean started = false;
+  private Thread reader;
+
+  public static StreamingTrace open(File f) throws IOException {
+    return new StreamingTrace(new InputStreamReader(new FileInputStream(f), Charsets.UTF_8), f.toString(), DEFAULT_CAPACITY);
+  }
+
+  public static StreamingTrace open(InputStream in, String name) {
+    return new StreamingTrace(new InputStreamReader(in, Charsets.UTF_8), name, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param input     Where to read the trace from.
+   * @param name      A name for the input used in thread names and error messages.
+   * @param capacity  How many segments may be read ahead of the generator.
+   */
+  public StreamingTrace(Reader input, String name, int capacity) {
+    this.input = input;
+    this.name = name;
+    buffer = new ArrayBlockingQueue<Generator.LoadSegment>(capacity);
+  }
+
+  @Override
+  public synchronized Iterator<Generator.LoadSegment> iterator() {
+    Preconditions.checkState(!started, "Streaming trace %s can only be replayed once", name);
+    started = true;
+
+    reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        read();
+      }
+    }, "trace-reader-" + name);
+    reader.setDaemon(true);
+    reader.start();
+
+    return new Iterator<Generator.LoadSegment>() {
+      private Generator.LoadSegment next = null;
+
+      @Override
+      public boolean hasNext() {
+        if (closed) {
+          return false;
+        }
+        if (next == null) {
+          try {
+            next = buffer.take();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReadException(new InterruptedIOException("Interrupted reading trace " + name));
+          }
+        }
+        if (next == END) {
+          // leave END in place so that we keep saying there is no more
+          if (failure != null) {
+            throw new ReadException(failure);
+          }
+          return false;
+        }
+        return true;
+      }
+
+      @Override
+      public Generator.LoadSegment next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Generator.LoadSegment r = next;
+        next = null;
+        return r;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Can't remove from a trace");
+      }
+    };
+  }
+
+  private void read() {
+    TraceParser parser = new TraceParser();
+    BufferedReader in = new BufferedReader(input);
+    try {
+      try {
+        int lineNumber = 0;
+        String line = in.readLine();
+        while (line != null) {
+          lineNumber++;
+          Generator.LoadSegment segment;
+          try {
+            segment = parser.processLine(line);
+          } catch (IOException e) {
+            throw badLine(lineNumber, line, e);
+          } catch (RuntimeException e) {
+            throw badLine(lineNumber, line, e);
+          }
+          if (segment != null) {
+            buffer.put(segment);
+          }
+          line = in.readLine();
+        }
+      } catch (IOException e) {
+        failure = e;
+      }
+      buffer.put(END);
+    } catch (InterruptedException e) {
+      // closed, so nobody is listening any more
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  private IOException badLine(int lineNumber, String line, Exception cause) {
+    return new IOException(String.format("Bad line %d in trace %s: <%s>", lineNumber, name, line), cause);
+  }
+
+  /**
+   * Stops the reader and closes the input.  Iteration ends as if the trace had.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (reader != null) {
+      reader.interrupt();
+    } else {
+      Closeables.closeQuietly(input);
+    }
+  }
+
+  /**
+   * Signals that reading the trace failed.  The cause is always an IOException.
+   */
+  public static class ReadException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private ReadException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+}
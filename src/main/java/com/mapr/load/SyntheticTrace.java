@@ -0,0 +1,289 @@
+package com.mapr.load;
+
+import com.google.common.base.Preconditions;
+import com.mapr.generate.FastRandom;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A trace that is synthesized from rate models as it is replayed instead of being read from a
+ * file, so that loads of any rate and length can be generated without a trace file.  Read and
+ * write rates each come from a RateModel such as a diurnal sinusoid, Markov modulated bursts, an
+ * on/off source or periodic batches, and models can be added together.
+ *
+ * A synthetic trace is seeded, so every pass over it produces exactly the same segments.  That
+ * lets it be added to a Generator or ParallelGenerator like any other trace, and lets all the
+ * workers of a ParallelGenerator replay it at once.
+ */
+public class SyntheticTrace extends AbstractCollection<Generator.LoadSegment> {
+  private final RateModel reads;
+  private final RateModel writes;
+  private final double length;
+  private final double segmentDuration;
+  private long seed = new FastRandom().nextLong();
+
+  /**
+   * Creates a trace of one second segments.
+   *
+   * @param reads   Read rate in blocks per second.
+   * @param writes  Write rate in blocks per second.
+   * @param length  Total length in seconds.
+   */
+  public static SyntheticTrace create(RateModel reads, RateModel writes, double length) {
+    return new SyntheticTrace(reads, writes, length, 1);
+  }
+
+  public SyntheticTrace(RateModel reads, RateModel writes, double length, double segmentDuration) {
+    Preconditions.checkArgument(length > 0, "Length must be positive, got %s", length);
+    Preconditions.checkArgument(segmentDuration > 0, "Segment duration must be positive, got %s", segmentDuration);
+    this.reads = reads;
+    this.writes = writes;
+    this.length = length;
+    this.segmentDuration = segmentDuration;
+  }
+
+  /**
+   * Fixes the random choices made by stochastic models so that a run can be repeated.
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  @Override
+  public int size() {
+    final double n = length / segmentDuration;
+    // a whole number of segments up to rounding error doesn't get an extra sliver at the end
+    return (int) (Math.abs(n - Math.rint(n)) < 1e-9 * n ? Math.rint(n) : Math.ceil(n));
+  }
+
+  @Override
+  public Iterator<Generator.LoadSegment> iterator() {
+    FastRandom rand = new FastRandom(seed);
+    final Rate readRate = reads.start(rand.split());
+    final Rate writeRate = writes.start(rand.split());
+    final int n = size();
+    return new Iterator<Generator.LoadSegment>() {
+      private int i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return i < n;
+      }
+
+      @Override
+      public Generator.LoadSegment next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        // times are computed from the index so rounding errors don't pile up, and the last
+        // segment is cut short so the trace has exactly the requested length
+        final double t = i * segmentDuration;
+        final double dt = Math.min(segmentDuration, length - t);
+        i++;
+        return new Generator.LoadSegment(readRate.mean(t, dt), writeRate.mean(t, dt), dt);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Can't remove from a synthetic trace");
+      }
+    };
+  }
+
+  /**
+   * Describes how a rate varies over time.
+   */
+  public interface RateModel {
+    /**
+     * Starts a new pass through the trace.  Each pass has its own state so that several
+     * generators can replay the same trace at once.
+     *
+     * @param rand  The source of any randomness this pass needs.
+     */
+    Rate start(Random rand);
+  }
+
+  /**
+   * One pass of a rate model.  Times are asked for in order, starting from zero.
+   */
+  public interface Rate {
+    /**
+     * Returns the mean rate over the interval from t to t + dt.
+     */
+    double mean(double t, double dt);
+  }
+
+  /**
+   * A rate that never changes.
+   */
+  public static RateModel constant(double rate) {
+    checkRate(rate);
+    return new Pulse(rate, 1, 1, 0);
+  }
+
+  /**
+   * A rate that rises and falls like daily traffic.
+   *
+   * @param mean       Mean rate.
+   * @param amplitude  Fraction of the mean that the rate swings up and down, at most 1.
+   * @param period     Seconds per cycle, 86400 for a real day.
+   * @param peak       Time of the first peak.
+   */
+  public static RateModel diurnal(final double mean, final double amplitude, final double period, final double peak) {
+    checkRate(mean);
+    Preconditions.checkArgument(amplitude >= 0 && amplitude <= 1, "Amplitude must be in [0,1], got %s", amplitude);
+    Preconditions.checkArgument(period > 0, "Period must be positive, got %s", period);
+    final Rate r = new Rate() {
+      @Override
+      public double mean(double t, double dt) {
+        // exact average of the sinusoid over the interval
+        final double w = 2 * Math.PI / period;
+        final double swing = (Math.sin(w * (t + dt - peak)) - Math.sin(w * (t - peak))) / (w * dt);
+        return mean * (1 + amplitude * swing);
+      }
+    };
+    return new RateModel() {
+      @Override
+      public Rate start(Random rand) {
+        return r;
+      }
+    };
+  }
+
+  /**
+   * A rate that switches at random between a quiet state and a burst state.  Time spent in
+   * each state is exponentially distributed, which makes this a Markov modulated process.
+   *
+   * @param quietRate  Rate between bursts.
+   * @param burstRate  Rate during bursts.
+   * @param meanQuiet  Mean seconds between bursts.
+   * @param meanBurst  Mean seconds a burst lasts.
+   */
+  public static RateModel markovBursts(final double quietRate, final double burstRate, final double meanQuiet, final double meanBurst) {
+    checkRate(quietRate);
+    checkRate(burstRate);
+    Preconditions.checkArgument(meanQuiet > 0 && meanBurst > 0, "State durations must be positive");
+    return new RateModel() {
+      @Override
+      public Rate start(final Random rand) {
+        return new Rate() {
+          // start in the long run state distribution
+          private boolean burst = rand.nextDouble() < meanBurst / (meanQuiet + meanBurst);
+          private double nextSwitch = holdingTime();
+
+          private double holdingTime() {
+            return -(burst ? meanBurst : meanQuiet) * Math.log(1 - rand.nextDouble());
+          }
+
+          @Override
+          public double mean(double t, double dt) {
+            double sum = 0;
+            double now = t;
+            while (nextSwitch < t + dt) {
+              sum += (burst ? burstRate : quietRate) * (nextSwitch - now);
+              now = nextSwitch;
+              burst = !burst;
+              nextSwitch += holdingTime();
+            }
+            sum += (burst ? burstRate : quietRate) * (t + dt - now);
+            return sum / dt;
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * A rate that is on for a fixed time, then off for a fixed time, starting with on.
+   */
+  public static RateModel onOff(double rate, double on, double off) {
+    checkRate(rate);
+    Preconditions.checkArgument(on > 0 && off >= 0, "On time must be positive and off time non-negative");
+    return new Pulse(rate, on, on + off, 0);
+  }
+
+  /**
+   * Batches of a fixed number of blocks spread evenly over a short window at regular
+   * intervals.  The batch reads in CustomerLoad are periodicBatch(6000, 5, 1800, 0).
+   *
+   * @param blocks    Blocks per batch.
+   * @param duration  Seconds each batch takes.
+   * @param period    Seconds from the start of one batch to the next.
+   * @param offset    Start of the first batch.
+   */
+  public static RateModel periodicBatch(double blocks, double duration, double period, double offset) {
+    checkRate(blocks);
+    Preconditions.checkArgument(duration > 0 && duration <= period, "Batch duration must be in (0, period]");
+    return new Pulse(blocks / duration, duration, period, offset);
+  }
+
+  /**
+   * Adds rates together, such as a steady background load and periodic batches.
+   */
+  public static RateModel sum(final RateModel... models) {
+    return new RateModel() {
+      @Override
+      public Rate start(Random rand) {
+        final Rate[] rates = new Rate[models.length];
+        for (int i = 0; i < models.length; i++) {
+          rates[i] = models[i].start(rand);
+        }
+        return new Rate() {
+          @Override
+          public double mean(double t, double dt) {
+            double sum = 0;
+            for (Rate rate : rates) {
+              sum += rate.mean(t, dt);
+            }
+            return sum;
+          }
+        };
+      }
+    };
+  }
+
+  private static void checkRate(double rate) {
+    Preconditions.checkArgument(rate >= 0, "Rates can't be negative, got %s", rate);
+  }
+
+  /**
+   * A rectangular pulse that repeats.  The rate is height for width seconds from offset, then
+   * zero until the next period starts.
+   */
+  private static class Pulse implements RateModel, Rate {
+    private final double height;
+    private final double width;
+    private final double period;
+    private final double offset;
+
+    private Pulse(double height, double width, double period, double offset) {
+      this.height = height;
+      this.width = width;
+      this.period = period;
+      this.offset = offset;
+    }
+
+    @Override
+    public Rate start(Random rand) {
+      return this;
+    }
+
+    @Override
+    public double mean(double t, double dt) {
+      if (width >= period) {
+        return height;
+      }
+      double on = 0;
+      long first = (long) Math.floor((t - offset - width) / period);
+      long last = (long) Math.floor((t + dt - offset) / period);
+      for (long k = first; k <= last; k++) {
+        final double start = offset + k * period;
+        on += Math.max(0, Math.min(start + width, t + dt) - Math.max(start, t));
+      }
+      return height * on / dt;
+    }
+  }
+}
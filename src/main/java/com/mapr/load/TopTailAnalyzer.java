@@ -1,27 +1,41 @@
 package com.mapr.load;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.mapr.generate.FastRandom;
 
-import java.util.Iterator;
-import java.util.List;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
-import java.util.TreeSet;
 
 /**
  * Analyzes samples to determine the characteristics of the top tail of the distribution.
+ *
+ * Samples are kept in primitive min-heaps so that adding a sample never boxes or allocates
+ * (apart from the rare creation of a new tier).  This matters because add() is called on the
+ * same thread that is timing the I/O.
  */
 public class TopTailAnalyzer {
-  private final Random rand = new Random();
+  // number of top samples retained in each tier
+  private static final int TIER_SIZE = 1000;
+
+  private final Random rand = new FastRandom();
 
   // each of these keeps the top 1000 samples from all, or a sample of the data.
   // this allows us to compute high percentiles reasonably accurately with only
   // logarithmic storage.  The number of samples we need to keep is roughly
   // ceiling(log_10(n)) * 1000
+  //
+  // tier i is a min-heap stored in tiers[i][0..sizes[i]) so the smallest retained
+  // sample is always at tiers[i][0].
+  private double[][] tiers = new double[0][];
+  private int[] sizes = new int[0];
+  private int tierCount;
+
+  // scratch space for quantile computations
+  private final double[] sorted = new double[TIER_SIZE];
 
-  private final List<TreeSet<Double>> data = Lists.newArrayList();
   private double meanLatency;
   private double totalBytes;
   private double totalBlocks;
@@ -39,22 +53,16 @@ public class TopTailAnalyzer {
     totalBlocks += 1;
 
     // add to each of the samples with progressively lower probability.
-    // we use a loop based on index so we can add new elements to data in the loop.
-    for (int i = 0; i < data.size(); i++) {
+    // we use a loop based on index so we can add new tiers in the loop.
+    for (int i = 0; i < tierCount; i++) {
       // add to this sample and trim to top 1000
-      final TreeSet<Double> x = data.get(i);
-      if (x.size() < 1000 || latency > x.first()) {
-        x.add(latency + rand.nextDouble() * 1e-12);
-        if (x.size() > 1000) {
-          x.remove(x.first());
-        }
-      }
+      offer(i, latency);
 
       // with probability 0.1, add to the next sample
       final double u = rand.nextDouble();
       if (u <= 0.1) {
         // oh... that sample may not be there yet
-        if (i == data.size() - 1) {
+        if (i == tierCount - 1) {
           addSampleTier();
         }
       } else {
@@ -64,6 +72,106 @@ public class TopTailAnalyzer {
     }
   }
 
+  /**
+   * Adds all of the samples summarized by another analyzer to this one.  Because each tier
+   * holds the top samples of a nested 10^-i sample of its stream, the union of two tiers
+   * trimmed back to the top 1000 is exactly the tier that would have resulted from seeing
+   * both streams.  The cost is proportional to the size of the summary, not the number of
+   * samples.
+   *
+   * @param other  The analyzer to merge into this one.  It is not modified.
+   */
+  public void merge(TopTailAnalyzer other) {
+    if (other.samples > 0) {
+      // an empty analyzer has no meaningful time origin of its own
+      t0 = samples == 0 ? other.t0 : Math.min(t0, other.t0);
+    }
+    addSamples(other);
+  }
+
+  /**
+   * Adds the samples summarized by another analyzer but keeps this analyzer's time origin.
+   * This is for folding in samples that were collected elsewhere over the same interval.
+   *
+   * @param other  The analyzer whose samples are added.  It is not modified.
+   */
+  public void addSamples(TopTailAnalyzer other) {
+    Preconditions.checkArgument(other != this, "Can't merge an analyzer with itself");
+    if (other.samples == 0) {
+      return;
+    }
+
+    final long n = samples + other.samples;
+    meanLatency = (meanLatency * samples + other.meanLatency * other.samples) / n;
+    samples = n;
+    totalBytes += other.totalBytes;
+    totalBlocks += other.totalBlocks;
+
+    for (int i = 0; i < other.tierCount; i++) {
+      while (tierCount <= i) {
+        addSampleTier();
+      }
+      final double[] values = other.tiers[i];
+      for (int j = 0; j < other.sizes[i]; j++) {
+        offer(i, values[j]);
+      }
+    }
+  }
+
+  /**
+   * Writes this analyzer in a form that readFields() can restore, possibly in another process.
+   * Processes don't share a clock so the time origin is written relative to a reference time.
+   *
+   * @param out  Where to write.
+   * @param t    The reference time, usually the current time of the writer.
+   */
+  public void write(DataOutput out, double t) throws IOException {
+    out.writeLong(samples);
+    out.writeDouble(meanLatency);
+    out.writeDouble(totalBytes);
+    out.writeDouble(totalBlocks);
+    out.writeDouble(t0 - t);
+    out.writeInt(tierCount);
+    for (int i = 0; i < tierCount; i++) {
+      out.writeInt(sizes[i]);
+      for (int j = 0; j < sizes[i]; j++) {
+        out.writeDouble(tiers[i][j]);
+      }
+    }
+  }
+
+  /**
+   * Replaces the contents of this analyzer with one written by write().
+   *
+   * @param in  Where to read from.
+   * @param t   The reference time on this side, usually the current time of the reader.
+   */
+  public void readFields(DataInput in, double t) throws IOException {
+    reset(t);
+    samples = in.readLong();
+    meanLatency = in.readDouble();
+    totalBytes = in.readDouble();
+    totalBlocks = in.readDouble();
+    t0 = t + in.readDouble();
+    final int n = in.readInt();
+    tierCount = 0;
+    for (int i = 0; i < n; i++) {
+      addSampleTier();
+      final int size = in.readInt();
+      if (size < 0 || size > TIER_SIZE) {
+        throw new IOException("Invalid tier size " + size);
+      }
+      // the values were written in heap order so they can be copied as they are
+      for (int j = 0; j < size; j++) {
+        tiers[i][j] = in.readDouble();
+      }
+      sizes[i] = size;
+    }
+    if (tierCount == 0) {
+      addSampleTier();
+    }
+  }
+
   /**
    * Resets all stats to zero.
    * @param t  Current time
@@ -72,7 +180,11 @@ public class TopTailAnalyzer {
     t0 = t;
     samples = 0;
     meanLatency = 0;
-    data.clear();
+    totalBytes = 0;
+    totalBlocks = 0;
+    // keep the tier storage around, it will be needed again
+    Arrays.fill(sizes, 0);
+    tierCount = 0;
     addSampleTier();
   }
 
@@ -83,12 +195,18 @@ public class TopTailAnalyzer {
     return meanLatency;
   }
 
+  /**
+   * Returns the mean throughput since the last reset, NaN if no time has passed.
+   */
   public double meanBytesPerSecond(double t) {
-    return totalBytes / (t - t0);
+    return t > t0 ? totalBytes / (t - t0) : Double.NaN;
   }
 
+  /**
+   * Returns the mean throughput since the last reset, NaN if no time has passed.
+   */
   public double meanBlocksPerSecond(double t) {
-    return totalBlocks / (t - t0);
+    return t > t0 ? totalBlocks / (t - t0) : Double.NaN;
   }
 
   public double totalBytes() {
@@ -117,28 +235,77 @@ public class TopTailAnalyzer {
     Preconditions.checkArgument(q >= 0.99, "This summarizer only works on high quantiles");
     Preconditions.checkState(samples > 100, "Should have lots of samples before asking for a high quantile");
 
-    // find the first usable set
-    Iterator<TreeSet<Double>> i = data.iterator();
+    // find the first usable tier
+    int i = 0;
     double n = (1 - q) * samples;
-    TreeSet<Double> x = i.next();
-    while (n >= x.size()) {
+    while (n >= sizes[i]) {
       n /= 10;
-      x = i.next();
+      i++;
+      if (i >= tierCount) {
+        throw new IllegalStateException("Not enough samples retained for quantile " + q);
+      }
     }
-    // then estimate the quantile from that set
-    return Iterables.get(x.descendingSet(), (int) n);
+
+    // then estimate the quantile from that tier
+    final int size = sizes[i];
+    System.arraycopy(tiers[i], 0, sorted, 0, size);
+    Arrays.sort(sorted, 0, size);
+    return sorted[size - 1 - (int) n];
   }
 
   public long size() {
     return samples;
   }
 
+  public double totalBlocks() {
+    return totalBlocks;
+  }
+
   private void addSampleTier() {
-    final TreeSet<Double> set = Sets.newTreeSet();
-    data.add(set);
+    if (tierCount == tiers.length) {
+      tiers = Arrays.copyOf(tiers, tierCount + 1);
+      sizes = Arrays.copyOf(sizes, tierCount + 1);
+      tiers[tierCount] = new double[TIER_SIZE];
+    }
+    sizes[tierCount] = 0;
+    tierCount++;
   }
 
-  public double totalBlocks() {
-    return totalBlocks;
+  /**
+   * Adds a value to a tier if it is among the largest TIER_SIZE values seen by that tier.
+   */
+  private void offer(int tier, double value) {
+    final double[] heap = tiers[tier];
+    final int size = sizes[tier];
+    if (size < TIER_SIZE) {
+      // sift up from the new leaf
+      int k = size;
+      while (k > 0) {
+        int parent = (k - 1) >>> 1;
+        if (heap[parent] <= value) {
+          break;
+        }
+        heap[k] = heap[parent];
+        k = parent;
+      }
+      heap[k] = value;
+      sizes[tier] = size + 1;
+    } else if (value > heap[0]) {
+      // replace the smallest retained value and sift down
+      int k = 0;
+      int half = size >>> 1;
+      while (k < half) {
+        int child = 2 * k + 1;
+        if (child + 1 < size && heap[child + 1] < heap[child]) {
+          child++;
+        }
+        if (value <= heap[child]) {
+          break;
+        }
+        heap[k] = heap[child];
+        k = child;
+      }
+      heap[k] = value;
+    }
   }
 }
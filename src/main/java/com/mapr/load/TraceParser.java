@@ -0,0 +1,56 @@
+package com.mapr.load;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Iterator;
+
+/**
+ * Turns the lines of a TSV trace into segments one at a time.  See Generator.readTraceFile for
+ * the format.  A segment is only complete when the line with the next time stamp is seen so
+ * each line yields the segment that the previous line started, if any.
+ */
+class TraceParser {
+  private final Splitter onTabs = Splitter.on("\t").trimResults().omitEmptyStrings();
+  private final DateFormat df = new SimpleDateFormat("M/d H:m:s");
+  private double t0 = -1;
+  private double reads = 0;
+  private double writes = 0;
+  private boolean header = true;
+
+  /**
+   * Parses one line.
+   *
+   * @param line  The line to parse.
+   * @return The segment that ends at this line or null if no segment was completed.
+   * @throws IOException If a data line has a bad date.
+   */
+  Generator.LoadSegment processLine(String line) throws IOException {
+    Generator.LoadSegment r = null;
+    Iterable<String> bits = onTabs.split(line);
+    if (Iterables.size(bits) == 3) {
+      Iterator<String> i = bits.iterator();
+      final String dateString = i.next();
+      try {
+        double t = df.parse(dateString).getTime() / 1e3;
+        if (t0 != -1) {
+          r = new Generator.LoadSegment(reads, writes, t - t0);
+        }
+        t0 = t;
+        writes = Double.parseDouble(i.next());
+        reads = Double.parseDouble(i.next());
+      } catch (ParseException e) {
+        if (!header) {
+          throw new IOException(String.format("Bad date <%s>\n", dateString));
+        } else {
+          header = false;
+        }
+      }
+    }
+    return r;
+  }
+}
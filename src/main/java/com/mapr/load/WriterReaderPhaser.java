@@ -0,0 +1,65 @@
+package com.mapr.load;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets many writers record into data structures without locks while a reader occasionally
+ * swaps those structures out for fresh ones.  This is the phaser described by Gil Tene for
+ * HdrHistogram's interval recorders.
+ *
+ * Writers bracket each update with writerCriticalSectionEnter() and writerCriticalSectionExit(),
+ * which are single atomic increments that never block.  A reader takes the reader lock, swaps
+ * the active structures, then calls flipPhase() which returns once every writer that might still
+ * be using the old structures has left its critical section.  After that the reader owns the
+ * old structures outright.
+ */
+class WriterReaderPhaser {
+  // the sign of startEpoch says which phase writers are entering
+  private final AtomicLong startEpoch = new AtomicLong(0);
+  private final AtomicLong evenEndEpoch = new AtomicLong(0);
+  private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+  private final ReentrantLock readerLock = new ReentrantLock();
+
+  /**
+   * Enters a writer critical section.
+   *
+   * @return A value that must be passed to writerCriticalSectionExit().
+   */
+  long writerCriticalSectionEnter() {
+    return startEpoch.getAndIncrement();
+  }
+
+  void writerCriticalSectionExit(long enterValue) {
+    (enterValue < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+  }
+
+  void readerLock() {
+    readerLock.lock();
+  }
+
+  void readerUnlock() {
+    readerLock.unlock();
+  }
+
+  /**
+   * Waits for all writers that entered before now to exit.  Must hold the reader lock.
+   */
+  void flipPhase() {
+    if (!readerLock.isHeldByCurrentThread()) {
+      throw new IllegalStateException("flipPhase() needs the reader lock");
+    }
+    final boolean nextPhaseIsEven = startEpoch.get() < 0;
+    final long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+
+    // the end counter of the next phase has to be ready before writers can enter it
+    (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+    final long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+
+    final AtomicLong previousEnd = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+    while (previousEnd.get() != startValueAtFlip) {
+      Thread.yield();
+    }
+  }
+}
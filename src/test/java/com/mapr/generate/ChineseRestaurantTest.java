@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapr.generate;
+
+import org.apache.mahout.math.list.DoubleArrayList;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChineseRestaurantTest {
+  @Test
+  public void testMatchesLinearScan() {
+    // with the same random numbers, the tree must pick exactly the same tables as a linear scan
+    double[][] parameters = {{1, 0}, {10, 0}, {100, 0.5}, {1000, 0.9}, {5, 0.25}, {50, 1}};
+    for (double[] p : parameters) {
+      ChineseRestaurant tree = new ChineseRestaurant(p[0], p[1], new Random(p.hashCode()));
+      LinearRestaurant linear = new LinearRestaurant(p[0], p[1], new Random(p.hashCode()));
+      for (int i = 0; i < 100000; i++) {
+        assertEquals(String.format("alpha = %.0f, discount = %.2f, sample %d", p[0], p[1], i),
+          linear.sample(), tree.sample());
+      }
+      assertEquals(linear.weights.size(), tree.size());
+      for (int j = 0; j < tree.size(); j++) {
+        assertEquals(linear.weights.get(j), tree.count(j), 0);
+      }
+    }
+  }
+
+  @Test
+  public void testManyTables() {
+    // a large alpha gives lots of tables, expected number is alpha * log(1 + n / alpha)
+    ChineseRestaurant s = new ChineseRestaurant(1000000, 0);
+    final int n = 2000000;
+    for (int i = 0; i < n; i++) {
+      s.sample();
+    }
+    assertEquals(n, s.count());
+    assertEquals(1000000 * Math.log(1 + n / 1000000.0), s.size(), 5000);
+  }
+
+  /**
+   * The original O(n) implementation, kept as a reference.
+   */
+  private static class LinearRestaurant {
+    private double alpha;
+    private double weight = 0;
+    private double discount = 0;
+    private DoubleArrayList weights = new DoubleArrayList();
+    private Random rand;
+
+    private LinearRestaurant(double alpha, double discount, Random rand) {
+      this.alpha = alpha;
+      this.discount = discount;
+      this.rand = rand;
+    }
+
+    public Integer sample() {
+      double u = rand.nextDouble() * (alpha + weight);
+      for (int j = 0; j < weights.size(); j++) {
+        if (u < weights.get(j) - discount) {
+          weights.set(j, weights.get(j) + 1);
+          weight++;
+          return j;
+        } else {
+          u -= weights.get(j) - discount;
+        }
+      }
+      weights.add(1);
+      weight++;
+      return weights.size() - 1;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.mapr.load;
+
+import com.mapr.generate.ChineseRestaurant;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncFilerTest {
+  @Test
+  public void testReadAfterWrite() throws Exception {
+    File file = File.createTempFile("async-", ".goo");
+    file.deleteOnExit();
+    // a high alpha keeps extending the file so reads often land near writes still in flight
+    AsyncFiler filer = new AsyncFiler(file, new ChineseRestaurant(1000, 0), 1, 16);
+    for (int i = 0; i < 16; i++) {
+      filer.write(filer.currentTime(), 4096);
+    }
+    filer.segmentStart(filer.currentTime());
+    for (int i = 0; i < 2000; i++) {
+      filer.write(filer.currentTime(), 4096);
+      filer.read(filer.currentTime(), 4096);
+    }
+    filer.segmentEnd(filer.currentTime());
+
+    // every operation completed and was recorded and no read was taken for corruption
+    assertEquals(2000, filer.segmentSummary(Filer.Op.WRITE).size());
+    assertEquals(2000, filer.segmentSummary(Filer.Op.READ).size());
+    filer.read(filer.currentTime(), 4096);
+  }
+
+  @Test
+  public void testZeroBlockWithoutWrites() throws Exception {
+    File file = File.createTempFile("async-", ".goo");
+    file.deleteOnExit();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(100 * 4096);
+    raf.close();
+
+    // with nothing being written a zero block can't be a hole, so it is reported
+    AsyncFiler filer = new AsyncFiler(file, new ChineseRestaurant(1000, 0), 1, 4);
+    try {
+      // failures surface on a later call, so keep reading until one does
+      for (int i = 0; i < 100; i++) {
+        filer.read(filer.currentTime(), 4096);
+        filer.segmentEnd(filer.currentTime());
+      }
+      fail("Should have found blocks with the wrong content");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("incorrect content"));
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package com.mapr.load;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+
+public class BaseFilerTest {
+  private static final int THREADS = 4;
+  private static final int SAMPLES = 50000;
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    final RealTimeFiler filer = RealTimeFiler.create(1);
+    filer.segmentStart(0);
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+    try {
+      List<Future<Void>> writers = Lists.newArrayList();
+      for (int i = 0; i < THREADS; i++) {
+        writers.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            start.await();
+            for (int j = 0; j < SAMPLES; j++) {
+              filer.recordLatency(j % 2 == 0 ? Filer.Op.READ : Filer.Op.WRITE, 1e-3, 4096);
+            }
+            return null;
+          }
+        }));
+      }
+
+      // keeps reading and cutting segments while the writers are busy
+      Future<Integer> reader = pool.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          start.await();
+          int segments = 0;
+          while (!done.get()) {
+            filer.latencySamples(Filer.Op.READ);
+            filer.segmentEnd(segments);
+            filer.segmentStart(segments);
+            segments++;
+          }
+          return segments;
+        }
+      });
+
+      start.countDown();
+      for (Future<Void> writer : writers) {
+        writer.get();
+      }
+      done.set(true);
+      reader.get();
+    } finally {
+      pool.shutdownNow();
+    }
+
+    // nothing is lost or counted twice however recording and harvesting interleave
+    assertEquals(THREADS * SAMPLES / 2, filer.latencySamples(Filer.Op.READ));
+    assertEquals(THREADS * SAMPLES / 2, filer.summary(Filer.Op.READ).size());
+    assertEquals(THREADS * SAMPLES / 2, filer.summary(Filer.Op.WRITE).size());
+    assertEquals(1e-3, filer.quantile(Filer.Op.WRITE, 0.5), 1e-6);
+  }
+
+  @Test
+  public void testSharedRandomFiler() throws Exception {
+    File file = File.createTempFile("shared-", ".goo");
+    file.deleteOnExit();
+    final RandomFiler filer = RandomFiler.create(file);
+    filer.segmentStart(filer.currentTime());
+
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<Void>> workers = Lists.newArrayList();
+      for (int i = 0; i < THREADS; i++) {
+        workers.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int j = 0; j < 500; j++) {
+              filer.write(filer.currentTime(), 4096);
+              filer.read(filer.currentTime(), 4096);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> worker : workers) {
+        worker.get();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    // no read saw another block's content and no operation went unrecorded
+    assertEquals(THREADS * 500, filer.segmentSummary(Filer.Op.WRITE).size());
+    assertEquals(THREADS * 500, filer.segmentSummary(Filer.Op.READ).size());
+  }
+
+  @Test
+  public void testDelegation() throws Exception {
+    final SimulatedFiler base = new SimulatedFiler(SimulatedFiler.constant(1e-3), SimulatedFiler.constant(1e-3), 1);
+    // only knows how to write, everything else goes to the base
+    BaseFiler writer = new BaseFiler() {
+      @Override
+      public void write(double t, int blockSize) {
+        recordLatency(Op.WRITE, 2e-3, blockSize);
+      }
+    };
+    Filer filer = writer.with(base);
+
+    filer.sleep(5);
+    assertEquals(5, filer.currentTime(), 0);
+    filer.write(filer.currentTime(), 4096);
+    filer.read(filer.currentTime(), 4096);
+    assertEquals(1, writer.latencySamples(Filer.Op.WRITE));
+    assertEquals(0, writer.latencySamples(Filer.Op.READ));
+    assertEquals(1, base.latencySamples(Filer.Op.READ));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testNoDelegate() throws Exception {
+    new BaseFiler().read(0, 4096);
+  }
+}
@@ -0,0 +1,106 @@
+package com.mapr.load;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.mapr.CustomerLoad;
+import com.mapr.generate.FastRandom;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompositeFilerTest {
+  @Test
+  public void testRouting() throws IOException, InterruptedException {
+    SimulatedFiler log = new SimulatedFiler(SimulatedFiler.constant(1e-4), SimulatedFiler.constant(1e-4), 1);
+    SimulatedFiler data = new SimulatedFiler(SimulatedFiler.constant(5e-3), SimulatedFiler.constant(5e-3), 8);
+    CompositeFiler composite = new CompositeFiler(new FastRandom(1));
+    composite.add("log", log, 0, 3);
+    composite.add("data", data, 1, 1);
+
+    Generator g = new Generator(2);
+    g.setBlockSize(4096);
+    g.addTrace(Lists.newArrayList(new Generator.LoadSegment(100, 400, 100)));
+    g.generate(composite);
+
+    // only the data file is read and writes split 3 to 1
+    final long writes = composite.latencySamples(Filer.Op.WRITE);
+    assertEquals(40000, writes, 4 * Math.sqrt(40000));
+    assertEquals(0, log.latencySamples(Filer.Op.READ));
+    assertEquals(0.75, (double) log.latencySamples(Filer.Op.WRITE) / writes, 0.01);
+    assertEquals(composite.latencySamples(Filer.Op.READ), data.latencySamples(Filer.Op.READ));
+
+    // the roll up has both children's latencies
+    assertEquals(writes, composite.summary(Filer.Op.WRITE).size());
+    assertEquals(1e-4, composite.summary(Filer.Op.WRITE).min(), 1e-9);
+    assertEquals(5e-3, composite.summary(Filer.Op.WRITE).max(), 1e-9);
+    assertEquals(0.75 * 1e-4 + 0.25 * 5e-3, composite.summary(Filer.Op.WRITE).meanLatency(), 2e-4);
+    assertEquals(5e-3, composite.quantile(Filer.Op.READ, 0.99), 1e-9);
+  }
+
+  @Test
+  public void testReportNamesChildren() throws IOException {
+    CompositeFiler composite = new CompositeFiler(new FastRandom(1));
+    composite.add("log", SimulatedFiler.create(1e-4, 1), 0, 1);
+    composite.add("data", SimulatedFiler.create(5e-3, 8), 1, 1);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(out, true));
+    try {
+      composite.segmentStart(composite.currentTime());
+      for (int i = 0; i < 100; i++) {
+        composite.write(composite.currentTime(), 4096);
+        composite.read(composite.currentTime(), 4096);
+      }
+      composite.segmentEnd(composite.currentTime());
+    } finally {
+      System.setOut(stdout);
+    }
+
+    // one line per child, then the roll-up, and nothing from the children themselves
+    String[] lines = out.toString().split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].startsWith("log "));
+    assertTrue(lines[1].startsWith("data "));
+    assertTrue(lines[2].startsWith("total "));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoReader() throws IOException {
+    CompositeFiler composite = new CompositeFiler();
+    composite.add("log", SimulatedFiler.create(1e-3, 1), 0, 1);
+    composite.read(0, 4096);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoReaderAtStart() {
+    CompositeFiler composite = new CompositeFiler();
+    composite.add("log", SimulatedFiler.create(1e-3, 1), 0, 1);
+    composite.segmentStart(0);
+  }
+
+  @Test
+  public void testCustomerMix() throws IOException {
+    File dir = Files.createTempDir();
+    File data = new File(dir, "data.goo");
+    Prefill.fill(data, 1000, 4096, 1);
+    CompositeFiler mix = CustomerLoad.mix(dir, data, 0.25);
+    mix.segmentStart(mix.currentTime());
+    for (int i = 0; i < 2000; i++) {
+      mix.write(mix.currentTime(), 4096);
+      mix.read(mix.currentTime(), 4096);
+    }
+
+    // each log gets a quarter of the writes and only the log being tailed is read
+    assertEquals(500, mix.child("db-log").latencySamples(Filer.Op.WRITE), 4 * Math.sqrt(500));
+    assertEquals(500, mix.child("log").latencySamples(Filer.Op.WRITE), 4 * Math.sqrt(500));
+    assertEquals(0, mix.child("db-log").latencySamples(Filer.Op.READ));
+    assertEquals(1500, mix.child("data").latencySamples(Filer.Op.READ), 4 * Math.sqrt(500));
+  }
+}
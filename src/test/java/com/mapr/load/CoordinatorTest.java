@@ -0,0 +1,176 @@
+package com.mapr.load;
+
+import com.google.common.collect.Lists;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoordinatorTest {
+  private final List<Generator.LoadSegment> trace = Lists.newArrayList(
+    new Generator.LoadSegment(500, 1000, 2),
+    new Generator.LoadSegment(0, 2000, 2),
+    new Generator.LoadSegment(1000, 0, 2)
+  );
+
+  @Test
+  public void testLoopback() throws Exception {
+    ServerSocket server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+    Coordinator coordinator = new Coordinator(server, 3);
+
+    ExecutorService pool = Executors.newCachedThreadPool();
+    try {
+      List<Future<Void>> workers = Lists.newArrayList();
+      for (int i = 0; i < 3; i++) {
+        workers.add(pool.submit(worker(new FastFiler(false), "w" + i, server.getLocalPort())));
+      }
+      coordinator.run(trace, 1, 4096);
+      for (Future<Void> worker : workers) {
+        worker.get();
+      }
+    } finally {
+      pool.shutdownNow();
+      server.close();
+    }
+
+    // the workers share the load so the totals match the trace
+    long writes = coordinator.summary(Filer.Op.WRITE).size();
+    long reads = coordinator.summary(Filer.Op.READ).size();
+    assertEquals(6000, writes, 4 * Math.sqrt(6000));
+    assertEquals(3000, reads, 4 * Math.sqrt(3000));
+    assertEquals(1e-3, coordinator.summary(Filer.Op.WRITE).quantile(0.5), 1e-4);
+  }
+
+  @Test
+  public void testWorkerFailure() throws Exception {
+    ServerSocket server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+    Coordinator coordinator = new Coordinator(server, 2);
+
+    ExecutorService pool = Executors.newCachedThreadPool();
+    try {
+      pool.submit(worker(new FastFiler(false), "good", server.getLocalPort()));
+      pool.submit(worker(new FastFiler(true), "bad", server.getLocalPort()));
+      coordinator.run(trace, 1, 4096);
+      fail("Should have seen the failure");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("bad"));
+    } finally {
+      pool.shutdownNow();
+      server.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testMissingWorker() throws Exception {
+    ServerSocket server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+    Coordinator coordinator = new Coordinator(server, 2);
+    coordinator.setTimeout(0.2);
+
+    ExecutorService pool = Executors.newCachedThreadPool();
+    try {
+      pool.submit(worker(new FastFiler(false), "lonely", server.getLocalPort()));
+      coordinator.run(trace, 1, 4096);
+      fail("Should have given up waiting for the second worker");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("1 of 2"));
+    } finally {
+      pool.shutdownNow();
+      server.close();
+    }
+  }
+
+  @Test(timeout = 10000, expected = SocketTimeoutException.class)
+  public void testSilentCoordinator() throws Exception {
+    // accepts the connection but never says anything
+    ServerSocket server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+    try {
+      CoordinatedWorker worker = new CoordinatedWorker(new FastFiler(false), "patient");
+      worker.setTimeout(0.2);
+      worker.run("127.0.0.1", server.getLocalPort());
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testSeparateProcesses() throws Exception {
+    Assume.assumeNotNull(System.getProperty("slowTests"));
+    ServerSocket server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+    Coordinator coordinator = new Coordinator(server, 2);
+
+    String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    List<Process> workers = Lists.newArrayList();
+    for (int i = 0; i < 2; i++) {
+      File file = File.createTempFile("worker-", ".goo");
+      file.deleteOnExit();
+      File log = File.createTempFile("worker-", ".log");
+      log.deleteOnExit();
+      workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+        "-Dfile=" + file.getPath(), CoordinatedWorker.class.getName(), "127.0.0.1", String.valueOf(server.getLocalPort()))
+        .redirectErrorStream(true).redirectOutput(log).start());
+    }
+    try {
+      coordinator.run(Lists.newArrayList(
+        new Generator.LoadSegment(0, 200, 1),
+        new Generator.LoadSegment(0, 400, 1)), 1, 4096);
+      for (Process worker : workers) {
+        assertEquals(0, worker.waitFor());
+      }
+    } finally {
+      for (Process worker : workers) {
+        worker.destroy();
+      }
+      server.close();
+    }
+    assertEquals(600, coordinator.summary(Filer.Op.WRITE).size(), 4 * Math.sqrt(600));
+  }
+
+  private Callable<Void> worker(final Filer filer, final String name, final int port) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        new CoordinatedWorker(filer, name).run("127.0.0.1", port);
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Runs twenty times faster than real time and pretends every operation takes 1ms.
+   */
+  private static class FastFiler extends RealTimeFiler {
+    private final boolean broken;
+
+    private FastFiler(boolean broken) {
+      super(20);
+      setPacing(Pacing.PARK_YIELD);
+      this.broken = broken;
+    }
+
+    @Override
+    public void read(double t, int blockSize) throws IOException {
+      recordLatency(Op.READ, 1e-3, blockSize);
+    }
+
+    @Override
+    public void write(double t, int blockSize) throws IOException {
+      if (broken) {
+        throw new IOException("Disk on fire");
+      }
+      recordLatency(Op.WRITE, 1e-3, blockSize);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.mapr.load;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirectIoTest {
+  @Test
+  public void testRoundTrip() throws Exception {
+    File file = File.createTempFile("direct-", ".goo");
+    file.deleteOnExit();
+    DirectIo io = openOrSkip(file);
+    try {
+      final int blockSize = io.getAlignment();
+      ByteBuffer buf = io.acquire(blockSize);
+      assertTrue(buf.isDirect());
+      assertEquals(blockSize, buf.capacity());
+
+      buf.putLong(0, 42);
+      // a misaligned buffer or offset would fail here with EINVAL
+      assertEquals(blockSize, io.getChannel().write(buf, 3 * blockSize));
+      buf.clear();
+      buf.putLong(0, 0);
+      assertEquals(blockSize, io.getChannel().read(buf, 3 * blockSize));
+      assertEquals(42, buf.getLong(0));
+
+      // buffers are reused rather than reallocated
+      io.release(buf);
+      assertSame(buf, io.acquire(blockSize));
+    } finally {
+      io.close();
+    }
+  }
+
+  @Test
+  public void testBadBlockSize() throws Exception {
+    File file = File.createTempFile("direct-", ".goo");
+    file.deleteOnExit();
+    DirectIo io = openOrSkip(file);
+    try {
+      io.acquire(io.getAlignment() + 1);
+      fail("Should have rejected an unaligned block size");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("multiple of"));
+    } finally {
+      io.close();
+    }
+  }
+
+  @Test
+  public void testRandomFiler() throws Exception {
+    File file = File.createTempFile("direct-", ".goo");
+    file.deleteOnExit();
+    openOrSkip(file).close();
+
+    RandomFiler filer = RandomFiler.createDirect(file, 1000, 0.5, 1);
+    filer.segmentStart(filer.currentTime());
+    for (int i = 0; i < 100; i++) {
+      filer.write(filer.currentTime(), 4096);
+      filer.read(filer.currentTime(), 4096);
+    }
+    assertEquals(100, filer.segmentSummary(Filer.Op.READ).size());
+  }
+
+  /**
+   * Some file systems used for temporary files, such as tmpfs, don't allow direct I/O.
+   */
+  private DirectIo openOrSkip(File file) throws IOException {
+    try {
+      return DirectIo.open(file);
+    } catch (IOException e) {
+      Assume.assumeNoException(e);
+      throw e;
+    }
+  }
+}
@@ -12,12 +12,18 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StringReader;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class GeneratorTest {
   enum Kind {
@@ -98,6 +104,140 @@ public class GeneratorTest {
     assertEquals(2400, counts.get(2).count(Kind.WRITE), 3 * Math.sqrt(2400));
   }
 
+  @Test
+  public void testSeeding() throws InterruptedException, IOException {
+    List<List<Event>> runs = Lists.newArrayList();
+    for (int i = 0; i < 2; i++) {
+      List<Event> history = Lists.newArrayList();
+      Generator g = new Generator(42);
+      g.addTrace(Lists.newArrayList(
+        new Generator.LoadSegment(500, 500, 1.5),
+        new Generator.LoadSegment(100, 900, 0.5)
+      ));
+      g.generate(new Recorder(history, 1e-3));
+      runs.add(history);
+    }
+
+    // the same seed replays exactly the same events
+    assertEquals(runs.get(0).size(), runs.get(1).size());
+    for (int i = 0; i < runs.get(0).size(); i++) {
+      assertEquals(runs.get(0).get(i).type, runs.get(1).get(i).type);
+      assertEquals(runs.get(0).get(i).t, runs.get(1).get(i).t, 0);
+    }
+  }
+
+  @Test
+  public void testPrecompute() throws InterruptedException, IOException {
+    List<List<Event>> runs = Lists.newArrayList();
+    for (int depth = 0; depth < 3; depth += 2) {
+      List<Event> history = Lists.newArrayList();
+      Generator g = new Generator(42);
+      g.setPrecomputeDepth(depth);
+      g.addTrace(Lists.newArrayList(
+        new Generator.LoadSegment(5000, 5000, 1.5),
+        new Generator.LoadSegment(0, 0, 0.5),
+        new Generator.LoadSegment(1000, 9000, 0.5)
+      ));
+      g.generate(new Recorder(history, 1e-3));
+      runs.add(history);
+    }
+
+    // a background thread computes exactly the same schedule
+    assertEquals(runs.get(0).size(), runs.get(1).size());
+    for (int i = 0; i < runs.get(0).size(); i++) {
+      assertEquals(runs.get(0).get(i).type, runs.get(1).get(i).type);
+      assertEquals(runs.get(0).get(i).t, runs.get(1).get(i).t, 0);
+    }
+  }
+
+  @Test
+  public void testOffset() throws InterruptedException, IOException {
+    final List<Event> history = Lists.newArrayList();
+    Generator g = new Generator();
+    g.addTrace(Lists.newArrayList(
+      new Generator.LoadSegment(0, 0, 1.1),
+      new Generator.LoadSegment(0, 0, 2.3),
+      new Generator.LoadSegment(0, 0, 0.2)
+    ));
+
+    // start part way through the second segment and stop part way through the third
+    g.generate(1.5, 2, 1, new Recorder(history, 1e-3));
+
+    Iterator<Event> i = history.iterator();
+    assertEquals(0, i.next().t - Recorder.EPOCH, 1e-9);
+    assertEquals(1.9, i.next().t - Recorder.EPOCH, 1e-9);
+    assertEquals(1.9, i.next().t - Recorder.EPOCH, 1e-9);
+    assertEquals(2, i.next().t - Recorder.EPOCH, 1e-9);
+    assertFalse(i.hasNext());
+  }
+
+  @Test
+  public void testParallel() throws InterruptedException, IOException {
+    List<List<Event>> histories = Lists.newArrayList();
+    List<Filer> workers = Lists.newArrayList();
+    for (int i = 0; i < 4; i++) {
+      List<Event> history = Lists.newArrayList();
+      histories.add(history);
+      workers.add(new Recorder(history, 1e-3));
+    }
+
+    ParallelGenerator g = new ParallelGenerator(workers);
+    g.addTrace(Lists.newArrayList(
+      new Generator.LoadSegment(1000, 0, 1.1),
+      new Generator.LoadSegment(0, 2000, 2.3)
+    ));
+    g.generate(1);
+
+    Multiset<Kind> total = HashMultiset.create();
+    for (List<Event> history : histories) {
+      Multiset<Kind> counts = HashMultiset.create();
+      for (Event event : history) {
+        counts.add(event.type);
+      }
+      // every worker sees every segment boundary
+      assertEquals(2, counts.count(Kind.START));
+      assertEquals(2, counts.count(Kind.END));
+      total.addAll(counts);
+    }
+
+    // the combined rate matches the trace
+    assertEquals(1100, total.count(Kind.READ), 3 * Math.sqrt(1100));
+    assertEquals(4600, total.count(Kind.WRITE), 3 * Math.sqrt(4600));
+  }
+
+  @Test(timeout = 10000)
+  public void testParallelFailure() throws InterruptedException {
+    List<Filer> workers = Lists.newArrayList();
+    for (int i = 0; i < 3; i++) {
+      workers.add(new Recorder(Lists.<Event>newArrayList(), 1e-3));
+    }
+    // fails part way into the second segment while the others carry on to its end
+    final List<Event> failing = Lists.newArrayList();
+    workers.add(new Recorder(failing, 1e-3) {
+      @Override
+      public void write(double t, int blockSize) {
+        super.write(t, blockSize);
+        if (failing.size() > 100) {
+          throw new IllegalArgumentException("disk on fire");
+        }
+      }
+    });
+
+    ParallelGenerator g = new ParallelGenerator(workers);
+    g.addTrace(Lists.newArrayList(
+      new Generator.LoadSegment(0, 100, 1.0),
+      new Generator.LoadSegment(0, 1000, 1.0),
+      new Generator.LoadSegment(0, 1000, 1.0)
+    ));
+    try {
+      g.generate(1);
+      fail("Should have failed");
+    } catch (IOException e) {
+      // the other workers are released rather than left waiting, and the real cause is reported
+      assertEquals("disk on fire", e.getCause().getMessage());
+    }
+  }
+
   @Test
   public void testTraceReader() throws IOException {
     File f = File.createTempFile("trace-", "tsv");
@@ -121,6 +261,102 @@ public class GeneratorTest {
     assertEquals(1, x.get(2).getSegmentDuration(), 0);
   }
 
+  @Test
+  public void testBinaryTrace() throws IOException {
+    File tsv = File.createTempFile("trace-", "tsv");
+    tsv.deleteOnExit();
+    Files.write("03p nfs\twrite\tread\n" +
+      "06/28 09:00:00\t0.00\t20.00\n" +
+      "06/28 09:00:05\t1.00\t21.00\n" +
+      "06/28 09:00:08\t2.00\t22.00\n" +
+      "06/28 09:00:09\t3.00\t23.00\n", tsv, Charsets.UTF_8);
+    File bin = File.createTempFile("trace-", "bin");
+    bin.deleteOnExit();
+    BinaryTrace.convert(tsv, bin);
+
+    assertFalse(BinaryTrace.isBinary(tsv));
+    List<Generator.LoadSegment> expected = Generator.openTrace(tsv);
+    List<Generator.LoadSegment> x = Generator.openTrace(bin);
+    assertEquals(expected.size(), x.size());
+    for (int i = 0; i < x.size(); i++) {
+      assertEquals(expected.get(i).getReadRate(), x.get(i).getReadRate(), 0);
+      assertEquals(expected.get(i).getWriteRate(), x.get(i).getWriteRate(), 0);
+      assertEquals(expected.get(i).getSegmentDuration(), x.get(i).getSegmentDuration(), 0);
+    }
+
+    // every opener shares the same mapping
+    assertSame(x, BinaryTrace.open(bin));
+
+    // until the file is rewritten
+    BinaryTrace.write(expected.subList(0, 2), bin);
+    assertEquals(2, BinaryTrace.open(bin).size());
+  }
+
+  @Test
+  public void testStreamingTrace() throws InterruptedException, IOException {
+    StringBuilder input = new StringBuilder("03p nfs\twrite\tread\n");
+    for (int i = 0; i <= 100; i++) {
+      input.append(String.format("06/28 09:%02d:%02d\t%d.00\t0.00\n", i / 60, i % 60, i % 2));
+    }
+    // far less buffer than the trace needs
+    StreamingTrace trace = new StreamingTrace(new StringReader(input.toString()), "test", 3);
+
+    final List<Event> history = Lists.newArrayList();
+    Generator g = new Generator();
+    g.addTrace(trace);
+    g.generate(new Recorder(history, 1e-3));
+
+    int segments = 0;
+    for (Event event : history) {
+      if (event.type == Kind.END) {
+        segments++;
+      }
+    }
+    assertEquals(100, segments);
+    assertEquals(100, history.get(history.size() - 1).t - Recorder.EPOCH, 1e-9);
+  }
+
+  @Test
+  public void testStreamingTraceBadLine() throws InterruptedException {
+    String input = "03p nfs\twrite\tread\n"
+      + "06/28 09:00:00\t1.00\t0.00\n"
+      + "06/28 09:00:01\tlots\t0.00\n"
+      + "06/28 09:00:02\t1.00\t0.00\n";
+    Generator g = new Generator();
+    g.addTrace(new StreamingTrace(new StringReader(input), "test", 3));
+    try {
+      g.generate(new Recorder(Lists.<Event>newArrayList(), 1e-3));
+      fail("Should have rejected the bad count");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("line 3"));
+      assertTrue(e.getCause() instanceof NumberFormatException);
+    }
+  }
+
+  @Test
+  public void testStreamingTraceClose() throws InterruptedException {
+    StringBuilder input = new StringBuilder("03p nfs\twrite\tread\n");
+    for (int i = 0; i <= 100; i++) {
+      input.append(String.format("06/28 09:%02d:%02d\t1.00\t0.00\n", i / 60, i % 60));
+    }
+    final CountDownLatch closed = new CountDownLatch(1);
+    StreamingTrace trace = new StreamingTrace(new StringReader(input.toString()) {
+      @Override
+      public void close() {
+        closed.countDown();
+        super.close();
+      }
+    }, "test", 3);
+
+    // the reader fills the buffer and waits, then the trace is abandoned
+    Iterator<Generator.LoadSegment> i = trace.iterator();
+    assertTrue(i.hasNext());
+    i.next();
+    trace.close();
+    assertTrue(closed.await(1, TimeUnit.SECONDS));
+    assertFalse(i.hasNext());
+  }
+
   @Test
   public void testRealIo() throws IOException, InterruptedException {
     Assume.assumeNotNull(System.getProperty("slowTests"));
@@ -0,0 +1,67 @@
+package com.mapr.load;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+  @Test
+  public void testQuantiles() {
+    LatencyHistogram h = new LatencyHistogram(0.01);
+    Random gen = new Random();
+
+    // log-normal latencies centered around a millisecond cover many octaves
+    double[] samples = new double[100000];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = 1e-3 * Math.exp(gen.nextGaussian());
+      h.add(samples[i]);
+    }
+    Arrays.sort(samples);
+
+    for (double q : new double[]{0.001, 0.1, 0.5, 0.9, 0.99, 0.999}) {
+      final double expected = samples[(int) Math.ceil(q * samples.length) - 1];
+      assertEquals(String.format("quantile(%f)", q), expected, h.quantile(q), expected * 0.01);
+    }
+    assertEquals(samples[0], h.min(), 0);
+    assertEquals(samples[samples.length - 1], h.max(), 0);
+    assertEquals(samples[0], h.quantile(0), 0);
+    assertEquals(samples.length, h.size());
+  }
+
+  @Test
+  public void testReset() {
+    LatencyHistogram h = new LatencyHistogram();
+    h.add(1e-3);
+    h.add(3e-3);
+    assertEquals(2e-3, h.mean(), 1e-12);
+    h.reset();
+    assertEquals(0, h.size());
+    assertTrue(Double.isNaN(h.quantile(0.5)));
+    h.add(5e-6);
+    assertEquals(5e-6, h.quantile(0.5), 5e-8);
+  }
+
+  @Test
+  public void testMerge() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    LatencyHistogram all = new LatencyHistogram();
+    Random gen = new Random();
+    for (int i = 0; i < 10000; i++) {
+      double x = -Math.log(1 - gen.nextDouble()) * 1e-3;
+      (i % 3 == 0 ? a : b).add(x);
+      all.add(x);
+    }
+    a.merge(b);
+    assertEquals(all.size(), a.size());
+    assertEquals(all.min(), a.min(), 0);
+    assertEquals(all.max(), a.max(), 0);
+    for (double q : new double[]{0.1, 0.5, 0.9, 0.99}) {
+      assertEquals(all.quantile(q), a.quantile(q), 0);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.mapr.load;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LiveMetricsTest {
+  @Test
+  public void testConcurrentRecording() throws InterruptedException {
+    final LiveMetrics metrics = new LiveMetrics();
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    for (int i = 0; i < 4; i++) {
+      pool.submit(new Runnable() {
+        @Override
+        public void run() {
+          BaseFiler filer = new BaseFiler();
+          filer.setLiveMetrics(metrics);
+          for (int j = 0; j < 10000; j++) {
+            filer.recordLatency(Filer.Op.WRITE, 1e-3, 4096);
+          }
+        }
+      });
+    }
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(40000, metrics.operations(Filer.Op.WRITE));
+    assertEquals(0, metrics.operations(Filer.Op.READ));
+  }
+
+  @Test
+  public void testEndpoint() throws IOException {
+    LiveMetrics metrics = new LiveMetrics();
+    metrics.record(Filer.Op.READ, 3e-6, 4096);
+    metrics.record(Filer.Op.READ, 1e-3, 4096);
+    metrics.record(Filer.Op.READ, 100, 4096);
+
+    MetricsServer server = new MetricsServer(new InetSocketAddress("127.0.0.1", 0), metrics);
+    try {
+      URL url = new URL("http://127.0.0.1:" + server.getPort() + "/metrics");
+      String text = CharStreams.toString(new InputStreamReader(url.openStream(), Charsets.UTF_8));
+      assertTrue(text.contains("load_operations_total{op=\"read\"} 3\n"));
+      assertTrue(text.contains("load_bytes_total{op=\"read\"} 12288\n"));
+      // buckets are cumulative
+      assertTrue(text.contains("load_latency_seconds_bucket{op=\"read\",le=\"4.0E-6\"} 1\n"));
+      assertTrue(text.contains("load_latency_seconds_bucket{op=\"read\",le=\"0.001024\"} 2\n"));
+      assertTrue(text.contains("load_latency_seconds_bucket{op=\"read\",le=\"+Inf\"} 3\n"));
+      assertTrue(text.contains("load_latency_seconds_count{op=\"read\"} 3\n"));
+      assertTrue(text.contains("load_slippage_seconds_count 0\n"));
+    } finally {
+      server.stop();
+    }
+  }
+}
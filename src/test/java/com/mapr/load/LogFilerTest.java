@@ -0,0 +1,95 @@
+package com.mapr.load;
+
+import com.mapr.generate.FastRandom;
+import com.mapr.generate.Sampler;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogFilerTest {
+  @Test
+  public void testWrap() throws IOException {
+    File file = File.createTempFile("log-", ".goo");
+    file.deleteOnExit();
+    LogFiler log = new LogFiler(file, 100, LogFiler.Mode.WRAP, LogFiler.geometricLag(5, new FastRandom(1)), 64, 1);
+    for (int i = 0; i < 1000; i++) {
+      log.write(log.currentTime(), 4096);
+      // every read checks the sequence number of the block it lands on
+      log.read(log.currentTime(), 4096);
+    }
+    assertEquals(100 * 4096, file.length());
+    assertEquals(0, log.getTruncations());
+    assertEquals(1000, log.latencySamples(Filer.Op.READ));
+  }
+
+  @Test
+  public void testTruncate() throws IOException {
+    File file = File.createTempFile("log-", ".goo");
+    file.deleteOnExit();
+    // always asks for the oldest block the window can reach
+    LogFiler log = new LogFiler(file, 100, LogFiler.Mode.TRUNCATE, constantLag(63), 64, 1);
+    for (int i = 0; i < 250; i++) {
+      log.write(log.currentTime(), 4096);
+    }
+    assertEquals(2, log.getTruncations());
+    assertEquals(50 * 4096, file.length());
+    log.read(log.currentTime(), 4096);
+
+    // just after a truncation only the new blocks can be read
+    for (int i = 0; i < 51; i++) {
+      log.write(log.currentTime(), 4096);
+    }
+    assertEquals(3, log.getTruncations());
+    log.read(log.currentTime(), 4096);
+    assertEquals(2, log.latencySamples(Filer.Op.READ));
+  }
+
+  @Test
+  public void testGeometricLag() {
+    Sampler<Integer> lag = LogFiler.geometricLag(10, new FastRandom(1));
+    double sum = 0;
+    for (int i = 0; i < 100000; i++) {
+      sum += lag.sample();
+    }
+    assertEquals(10, sum / 100000, 0.2);
+    assertEquals(0, (int) LogFiler.geometricLag(0, new FastRandom(1)).sample());
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    File file = File.createTempFile("log-", ".goo");
+    file.deleteOnExit();
+    LogFiler log = LogFiler.create(file, 1 << 20, 4096, LogFiler.Mode.WRAP, 5);
+    log.read(0, 4096);
+    assertEquals(1, log.getMisses());
+    assertEquals(0, log.latencySamples(Filer.Op.READ));
+  }
+
+  @Test(expected = IOException.class)
+  public void testLongLag() throws IOException {
+    File file = File.createTempFile("log-", ".goo");
+    file.deleteOnExit();
+    LogFiler log = new LogFiler(file, 100, LogFiler.Mode.WRAP, constantLag(1000), 64, 1);
+    for (int i = 0; i < 10; i++) {
+      log.write(log.currentTime(), 4096);
+    }
+    // spoil the oldest block, which is where a lag longer than the log has to end up
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.writeLong(-1);
+    raf.close();
+    log.read(log.currentTime(), 4096);
+  }
+
+  private Sampler<Integer> constantLag(final int blocks) {
+    return new Sampler<Integer>() {
+      @Override
+      public Integer sample() {
+        return blocks;
+      }
+    };
+  }
+}
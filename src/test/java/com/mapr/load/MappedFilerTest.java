@@ -0,0 +1,48 @@
+package com.mapr.load;
+
+import com.mapr.generate.ChineseRestaurant;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedFilerTest {
+  private static final long REGION = 1 << 20;
+
+  @Test
+  public void testReuse() throws IOException {
+    File file = File.createTempFile("mapped-", ".goo");
+    file.deleteOnExit();
+    MappedFiler first = new MappedFiler(file, new ChineseRestaurant(1000, 0), 1, REGION);
+    for (int i = 0; i < 100; i++) {
+      first.write(first.currentTime(), 4096);
+    }
+    // the file is padded out to a whole region
+    assertEquals(REGION, file.length());
+
+    // a second run only reads blocks that hold data, never the padding
+    MappedFiler second = new MappedFiler(file, new ChineseRestaurant(1000, 0), 1, REGION);
+    for (int i = 0; i < 1000; i++) {
+      second.read(second.currentTime(), 4096);
+    }
+    assertEquals(1000, second.latencySamples(Filer.Op.READ));
+  }
+
+  @Test
+  public void testForceInterval() throws IOException, InterruptedException {
+    File file = File.createTempFile("mapped-", ".goo");
+    file.deleteOnExit();
+    MappedFiler filer = new MappedFiler(file, new ChineseRestaurant(1000, 0), 1, REGION);
+    filer.setForceInterval(0.01);
+    for (int i = 0; i < 5; i++) {
+      filer.write(filer.currentTime(), 4096);
+      filer.sleep(0.05);
+    }
+    // the first write starts the clock and each later one is due a force
+    assertTrue(filer.getForces() >= 3);
+    assertEquals(5, filer.latencySamples(Filer.Op.WRITE));
+  }
+}
@@ -0,0 +1,145 @@
+package com.mapr.load;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsSinkTest {
+  @Test
+  public void testFormats() throws IOException {
+    SegmentMetrics m = sample();
+
+    StringWriter csv = new StringWriter();
+    MetricsSink sink = new CsvMetricsSink(csv);
+    sink.write(m);
+    sink.write(m);
+    sink.close();
+    String[] lines = csv.toString().split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].startsWith("elapsed,time,write_count,write_total,write_rate"));
+    String[] fields = lines[1].split(",", -1);
+    assertEquals(SegmentMetrics.columns().size(), fields.length);
+    assertEquals("1000", fields[SegmentMetrics.columns().indexOf("write_count")]);
+    // no reads means no read latency
+    assertEquals("", fields[SegmentMetrics.columns().indexOf("read_p50")]);
+
+    StringWriter json = new StringWriter();
+    sink = new JsonMetricsSink(json);
+    sink.write(m);
+    sink.close();
+    assertTrue(json.toString().contains("\"write_count\": 1000,"));
+    assertTrue(json.toString().contains("\"read_mean\": null"));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    sink = new BinaryMetricsSink(new DataOutputStream(bytes));
+    sink.write(m);
+    sink.close();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    int n = BinaryMetricsSink.readHeader(in);
+    double[] record = BinaryMetricsSink.readRecord(in, n);
+    for (int i = 0; i < n; i++) {
+      assertEquals(m.get(i), record[i], 0);
+    }
+    assertNull(BinaryMetricsSink.readRecord(in, n));
+  }
+
+  @Test
+  public void testSegmentEnd() throws IOException {
+    Collector collector = new Collector();
+    AsyncMetricsSink sink = new AsyncMetricsSink(collector, 100);
+
+    BaseFiler filer = new BaseFiler();
+    filer.setMetricsSink(sink);
+    for (int segment = 0; segment < 10; segment++) {
+      filer.segmentStart(segment);
+      for (int i = 0; i < 100; i++) {
+        filer.recordLatency(Filer.Op.READ, 1e-3, 4096);
+      }
+      filer.segmentEnd(segment + 1);
+    }
+    sink.close();
+
+    assertEquals(10, collector.metrics.size());
+    SegmentMetrics last = collector.metrics.get(9);
+    assertEquals(100, last.get("read_count"), 0);
+    assertEquals(1000, last.get("read_total"), 0);
+    assertEquals(100, last.get("read_rate"), 1e-9);
+    assertEquals(1e-3, last.get("read_p99"), 1e-5);
+    assertTrue(Double.isNaN(last.get("slippage_mean")));
+  }
+
+  @Test
+  public void testZeroDuration() throws IOException {
+    LatencySummary writes = new LatencySummary();
+    writes.reset(5);
+    writes.add(1e-3, 4096);
+    SegmentMetrics m = new SegmentMetrics(1, 5, writes, writes, new LatencySummary(), new LatencySummary(), null);
+    // no time has passed so there is no rate rather than an infinite one
+    assertTrue(Double.isNaN(m.get("write_rate")));
+
+    StringWriter csv = new StringWriter();
+    MetricsSink sink = new CsvMetricsSink(csv);
+    sink.write(m);
+    sink.close();
+    String[] fields = csv.toString().split("\n")[1].split(",", -1);
+    assertEquals("", fields[SegmentMetrics.columns().indexOf("write_rate")]);
+  }
+
+  @Test
+  public void testMergedCounts() throws IOException {
+    List<RandomFiler> filers = Lists.newArrayList();
+    for (int i = 0; i < 2; i++) {
+      File file = File.createTempFile("merge-", ".goo");
+      file.deleteOnExit();
+      RandomFiler filer = RandomFiler.create(file);
+      filer.setCacheHitThreshold(10);
+      filer.segmentStart(filer.currentTime());
+      // with a huge alpha every write is a new block at the end of the file
+      for (int j = 0; j < 100; j++) {
+        filer.write(filer.currentTime(), 4096);
+        filer.read(filer.currentTime(), 4096);
+      }
+      filers.add(filer);
+    }
+
+    // fractions are merged from the counts rather than left out
+    SegmentMetrics m = SegmentMetrics.merge(0, 0, filers);
+    assertEquals(200, m.get("write_count"), 0);
+    assertEquals(1, m.get("sequential"), 0.05);
+    assertEquals(1, m.get("cache_hit"), 0);
+  }
+
+  private SegmentMetrics sample() {
+    LatencySummary writes = new LatencySummary();
+    LatencySummary reads = new LatencySummary();
+    for (int i = 0; i < 1000; i++) {
+      writes.add(i * 1e-6, 4096);
+    }
+    return new SegmentMetrics(1, 2, writes, writes, reads, reads, null);
+  }
+
+  private static class Collector implements MetricsSink {
+    private final List<SegmentMetrics> metrics = Lists.newArrayList();
+
+    @Override
+    public void write(SegmentMetrics m) {
+      metrics.add(m);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package com.mapr.load;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OpenLoopFilerTest {
+  @Test
+  public void testSegmentEnd() throws IOException, InterruptedException {
+    final AtomicInteger ends = new AtomicInteger();
+    List<BaseFiler> workers = Lists.newArrayList();
+    for (int i = 0; i < 3; i++) {
+      workers.add(new CountingFiler(ends, false));
+    }
+    OpenLoopFiler filer = new OpenLoopFiler(workers);
+    try {
+      filer.segmentStart(filer.currentTime());
+      for (int i = 0; i < 300; i++) {
+        filer.write(filer.currentTime(), 4096);
+      }
+      filer.segmentEnd(filer.currentTime());
+      filer.flush();
+
+      // every operation is done and every worker has ended its segment
+      assertEquals(300, filer.segmentSummary(Filer.Op.WRITE).size());
+      assertEquals(3, ends.get());
+    } finally {
+      filer.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailure() throws IOException, InterruptedException {
+    OpenLoopFiler filer = new OpenLoopFiler(Lists.newArrayList(new CountingFiler(new AtomicInteger(), true)));
+    try {
+      filer.segmentStart(filer.currentTime());
+      filer.write(filer.currentTime(), 4096);
+      filer.flush();
+      filer.segmentEnd(filer.currentTime());
+      fail("Should have reported the failed write");
+    } catch (IllegalStateException e) {
+      assertEquals("disk on fire", e.getCause().getMessage());
+    } finally {
+      filer.shutdown();
+    }
+  }
+
+  @Test
+  public void testCacheHitsIgnoreQueueing() throws IOException, InterruptedException {
+    File file = File.createTempFile("open-", ".goo");
+    file.deleteOnExit();
+    Prefill.fill(file, 10, 4096, 1);
+    RandomFiler worker = RandomFiler.create(file);
+    worker.setCacheHitThreshold(0.1);
+    OpenLoopFiler filer = new OpenLoopFiler(Lists.newArrayList(worker));
+    Collector metrics = new Collector();
+    filer.setMetricsSink(metrics);
+    try {
+      filer.segmentStart(filer.currentTime());
+      // scheduled a second ago, so the latency is at least that but the reads themselves are fast
+      for (int i = 0; i < 10; i++) {
+        filer.read(filer.currentTime() - 1, 4096);
+      }
+      filer.segmentEnd(filer.currentTime());
+      filer.flush();
+      assertEquals(1, filer.quantile(Filer.Op.READ, 0), 0.1);
+      assertEquals(1, metrics.metrics.size());
+      assertEquals(1, metrics.metrics.get(0).get("cache_hit"), 0);
+    } finally {
+      filer.shutdown();
+    }
+  }
+
+  @Test
+  public void testSlowWorkerKeepsSchedule() throws IOException, InterruptedException {
+    OpenLoopFiler filer = new OpenLoopFiler(Lists.newArrayList(new SlowFiler(0.05)));
+    Collector metrics = new Collector();
+    filer.setMetricsSink(metrics);
+    try {
+      // half a second of work is queued in the first segment
+      double t = filer.currentTime();
+      filer.segmentStart(t);
+      for (int i = 0; i < 10; i++) {
+        filer.write(t, 4096);
+      }
+      long start = System.nanoTime();
+      filer.segmentEnd(t);
+      filer.segmentStart(t + 0.01);
+      filer.write(t + 0.01, 4096);
+      filer.segmentEnd(t + 0.02);
+      // crossing the boundary didn't wait for the worker
+      assertTrue((System.nanoTime() - start) * 1e-9 < 0.1);
+
+      filer.flush();
+      assertEquals(2, metrics.metrics.size());
+      // operations count in the segment they were scheduled in, however late they completed
+      assertEquals(10, metrics.metrics.get(0).get("write_count"), 0);
+      assertEquals(1, metrics.metrics.get(1).get("write_count"), 0);
+      assertTrue(metrics.metrics.get(1).get("write_max") >= 0.5);
+      assertEquals(1, filer.segmentSummary(Filer.Op.WRITE).size());
+    } finally {
+      filer.shutdown();
+    }
+  }
+
+  private static class CountingFiler extends RealTimeFiler {
+    private final AtomicInteger ends;
+    private final boolean fail;
+
+    private CountingFiler(AtomicInteger ends, boolean fail) {
+      super(1);
+      this.ends = ends;
+      this.fail = fail;
+    }
+
+    @Override
+    public void write(double t, int blockSize) {
+      if (fail) {
+        throw new IllegalArgumentException("disk on fire");
+      }
+      recordLatency(Op.WRITE, 1e-3, blockSize);
+    }
+
+    @Override
+    public void segmentEnd(double t) {
+      ends.incrementAndGet();
+      super.segmentEnd(t);
+    }
+  }
+
+  private static class SlowFiler extends RealTimeFiler {
+    private final double delay;
+
+    private SlowFiler(double delay) {
+      super(1);
+      this.delay = delay;
+    }
+
+    @Override
+    public void write(double t, int blockSize) throws IOException {
+      double start = startTime(t);
+      try {
+        Thread.sleep((long) (delay * 1000));
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted", e);
+      }
+      recordLatency(Op.WRITE, currentTime() - start, blockSize);
+    }
+  }
+
+  private static class Collector implements MetricsSink {
+    private final List<SegmentMetrics> metrics = Collections.synchronizedList(Lists.<SegmentMetrics>newArrayList());
+
+    @Override
+    public void write(SegmentMetrics m) {
+      metrics.add(m);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.mapr.load;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrefillTest {
+  @Test
+  public void testFill() throws IOException {
+    File file = File.createTempFile("prefill-", ".goo");
+    file.deleteOnExit();
+
+    // not a whole number of chunks or of chunks per thread
+    final long blocks = 1000;
+    assertTrue(Prefill.fill(file, blocks, 4096, 3));
+    assertEquals(blocks * 4096, file.length());
+
+    FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+    try {
+      ByteBuffer header = ByteBuffer.allocate(8);
+      for (long block = 0; block < blocks; block++) {
+        header.clear();
+        channel.read(header, block * 4096);
+        assertEquals(block, header.getLong(0));
+      }
+    } finally {
+      channel.close();
+    }
+
+    // a second fill finds the file already laid out
+    assertFalse(Prefill.fill(file, blocks, 4096, 3));
+    // but not if more is wanted
+    assertTrue(Prefill.fill(file, 2 * blocks, 4096, 2));
+  }
+
+  @Test
+  public void testReadAfterPrefill() throws IOException {
+    File file = File.createTempFile("prefill-", ".goo");
+    file.deleteOnExit();
+    Prefill.fill(file, 500, 4096, 2);
+
+    // reads can go anywhere before anything is written and every header checks out
+    RandomFiler filer = RandomFiler.create(file);
+    for (int i = 0; i < 1000; i++) {
+      filer.read(filer.currentTime(), 4096);
+    }
+    assertEquals(1000, filer.latencySamples(Filer.Op.READ));
+  }
+
+  @Test(expected = IOException.class)
+  public void testEmptyRead() throws IOException {
+    File file = File.createTempFile("prefill-", ".goo");
+    file.deleteOnExit();
+    RandomFiler.create(file).read(0, 4096);
+  }
+}
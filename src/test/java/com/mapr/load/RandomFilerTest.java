@@ -0,0 +1,162 @@
+package com.mapr.load;
+
+import com.google.common.collect.Lists;
+import com.mapr.generate.ChineseRestaurant;
+import com.mapr.generate.Sampler;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class RandomFilerTest {
+  private static final int BLOCKS = 1000;
+
+  @Test
+  public void testReadSampler() throws IOException {
+    File file = prefilled();
+    // everything but block 3 is spoiled, and 1003 wraps around to it
+    spoil(file, 0, 3);
+    spoil(file, 4, BLOCKS);
+    RandomFiler filer = RandomFiler.create(file);
+    filer.setReadSampler(new Sampler<Integer>() {
+      @Override
+      public Integer sample() {
+        return BLOCKS + 3;
+      }
+    });
+    for (int i = 0; i < 100; i++) {
+      filer.read(filer.currentTime(), 4096);
+    }
+    assertEquals(100, filer.latencySamples(Filer.Op.READ));
+  }
+
+  @Test
+  public void testHotSetReads() throws IOException {
+    File file = prefilled();
+    // with a small alpha, a thousand reads only ever find a handful of distinct blocks
+    spoil(file, 50, BLOCKS);
+    RandomFiler filer = RandomFiler.create(file);
+    filer.useHotSetReads(1, 0);
+    for (int i = 0; i < 1000; i++) {
+      filer.read(filer.currentTime(), 4096);
+    }
+    assertEquals(1000, filer.latencySamples(Filer.Op.READ));
+  }
+
+  @Test
+  public void testWritePopularityForReads() throws IOException {
+    File file = prefilled();
+    RandomFiler filer = new RandomFiler(file, new ChineseRestaurant(1, 0), 1);
+    filer.useWritePopularityForReads();
+
+    // before any write the reads are uniform rather than failing
+    for (int i = 0; i < 100; i++) {
+      filer.read(filer.currentTime(), 4096);
+    }
+
+    // afterwards they only go where the writes went
+    for (int i = 0; i < 1000; i++) {
+      filer.write(filer.currentTime(), 4096);
+    }
+    spoil(file, 50, BLOCKS);
+    for (int i = 0; i < 1000; i++) {
+      filer.read(filer.currentTime(), 4096);
+    }
+    assertEquals(1100, filer.latencySamples(Filer.Op.READ));
+  }
+
+  @Test(expected = IOException.class)
+  public void testZeroBlock() throws IOException {
+    File file = File.createTempFile("random-", ".goo");
+    file.deleteOnExit();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(BLOCKS * 4096);
+    raf.close();
+
+    // with nothing being written a zero block can't be a hole, so it is corrupt
+    RandomFiler filer = RandomFiler.create(file);
+    for (int i = 0; i < 100; i++) {
+      filer.read(filer.currentTime(), 4096);
+    }
+  }
+
+  @Test
+  public void testSharedFile() throws Exception {
+    File file = File.createTempFile("random-", ".goo");
+    file.deleteOnExit();
+    ChineseRestaurant sampler = new ChineseRestaurant(100000, 0);
+    List<RandomFiler> filers = Lists.newArrayList();
+    for (int i = 0; i < 4; i++) {
+      RandomFiler filer = new RandomFiler(file, sampler, 1);
+      if (i > 0) {
+        filer.shareWritesWith(filers.get(0));
+      }
+      filers.add(filer);
+    }
+
+    // holes left by one filer's writes aren't corruption to the others
+    ExecutorService pool = Executors.newFixedThreadPool(filers.size());
+    try {
+      List<Future<Void>> workers = Lists.newArrayList();
+      for (final RandomFiler filer : filers) {
+        workers.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            filer.write(filer.currentTime(), 4096);
+            for (int j = 0; j < 500; j++) {
+              filer.write(filer.currentTime(), 4096);
+              filer.read(filer.currentTime(), 4096);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> worker : workers) {
+        worker.get();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoPopularity() throws IOException {
+    RandomFiler filer = new RandomFiler(prefilled(), new Sampler<Integer>() {
+      @Override
+      public Integer sample() {
+        return 0;
+      }
+    }, 1);
+    filer.useWritePopularityForReads();
+  }
+
+  private File prefilled() throws IOException {
+    File file = File.createTempFile("random-", ".goo");
+    file.deleteOnExit();
+    Prefill.fill(file, BLOCKS, 4096, 1);
+    return file;
+  }
+
+  /**
+   * Overwrites the headers of a range of blocks so that any read of them fails.
+   */
+  private void spoil(File file, int first, int end) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      for (int block = first; block < end; block++) {
+        raf.seek((long) block * 4096);
+        raf.writeLong(-1);
+      }
+    } finally {
+      raf.close();
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package com.mapr.load;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RealTimeFilerTest {
+  @Test
+  public void testParkSpin() throws InterruptedException {
+    RealTimeFiler filer = RealTimeFiler.create(1);
+    filer.setPacing(RealTimeFiler.Pacing.PARK_SPIN);
+    filer.segmentStart(filer.currentTime());
+    for (int i = 0; i < 200; i++) {
+      final double t0 = filer.currentTime();
+      filer.sleep(200e-6);
+      // parking never finishes a wait early
+      assertTrue(filer.currentTime() - t0 >= 200e-6);
+    }
+    assertEquals(200, filer.segmentPacingError().size());
+    // generous, but a millisecond sleep would be far worse than this
+    assertTrue(filer.segmentPacingError().quantile(0.5) < 500e-6);
+  }
+
+  @Test
+  public void testSleepSkipsShortWaits() throws InterruptedException {
+    RealTimeFiler filer = RealTimeFiler.create(1);
+    filer.segmentStart(filer.currentTime());
+    filer.sleep(5e-3);
+    // the wait was skipped so the whole delay is error
+    assertEquals(5e-3, filer.segmentPacingError().max(), 1e-3);
+  }
+}
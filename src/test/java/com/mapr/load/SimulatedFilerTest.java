@@ -0,0 +1,57 @@
+package com.mapr.load;
+
+import com.google.common.collect.Lists;
+import com.mapr.generate.FastRandom;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimulatedFilerTest {
+  @Test
+  public void testMM1() throws IOException, InterruptedException {
+    // arrivals at 800/s and service at 1000/s keep the device 80% busy
+    final double lambda = 800;
+    final double mu = 1000;
+    SimulatedFiler filer = new SimulatedFiler(SimulatedFiler.exponential(1 / mu, new FastRandom(1)),
+      SimulatedFiler.exponential(1 / mu, new FastRandom(2)), 1);
+
+    Generator g = new Generator(3);
+    g.setBlockSize(4096);
+    g.addTrace(Lists.newArrayList(new Generator.LoadSegment(lambda / 2, lambda / 2, 2000)));
+    long t0 = System.nanoTime();
+    g.generate(filer);
+
+    // over a half hour of virtual time in much less real time
+    assertEquals(2000, filer.currentTime(), 1e-6);
+    assertTrue((System.nanoTime() - t0) * 1e-9 < 20);
+
+    // time in system for M/M/1 is exponential with rate mu - lambda
+    final double rate = mu - lambda;
+    for (Filer.Op op : Filer.Op.values()) {
+      assertEquals(1 / rate, filer.meanLatency(op), 0.05 / rate);
+      assertEquals(-Math.log(0.01) / rate, filer.quantile(op, 0.99), 0.1 * -Math.log(0.01) / rate);
+    }
+  }
+
+  @Test
+  public void testChannels() {
+    // constant service and simultaneous arrivals make the queue easy to follow
+    SimulatedFiler filer = new SimulatedFiler(SimulatedFiler.constant(1e-3), SimulatedFiler.constant(1e-3), 2);
+    for (int i = 0; i < 6; i++) {
+      filer.write(0, 4096);
+    }
+    // two at a time, so pairs finish at 1, 2 and 3ms
+    assertEquals(6, filer.latencySamples(Filer.Op.WRITE));
+    assertEquals(3e-3, filer.maxLatency(Filer.Op.WRITE), 1e-12);
+    assertEquals(1e-3, filer.minLatency(Filer.Op.WRITE), 1e-12);
+    assertEquals(2e-3, filer.meanLatency(Filer.Op.WRITE), 1e-12);
+
+    // the device has caught up by the time the next operation arrives
+    filer.sleep(1);
+    filer.read(filer.currentTime(), 4096);
+    assertEquals(1e-3, filer.maxLatency(Filer.Op.READ), 1e-12);
+  }
+}
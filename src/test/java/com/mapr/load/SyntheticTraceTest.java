@@ -0,0 +1,111 @@
+package com.mapr.load;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticTraceTest {
+  @Test
+  public void testFractionalSegments() {
+    // neither 0.1 nor 1.1 is exact in binary, so adding up segments would drift
+    for (double length : new double[]{1, 1.1, 0.95}) {
+      SyntheticTrace trace = new SyntheticTrace(SyntheticTrace.constant(10), SyntheticTrace.constant(5), length, 0.1);
+      int segments = 0;
+      double total = 0;
+      for (Generator.LoadSegment segment : trace) {
+        assertTrue(segment.getSegmentDuration() > 0.05 - 1e-9);
+        segments++;
+        total += segment.getSegmentDuration();
+      }
+      assertEquals(trace.size(), segments);
+      assertEquals(length, total, 1e-9);
+    }
+    assertEquals(10, new SyntheticTrace(SyntheticTrace.constant(10), SyntheticTrace.constant(5), 1, 0.1).size());
+    assertEquals(11, new SyntheticTrace(SyntheticTrace.constant(10), SyntheticTrace.constant(5), 1.1, 0.1).size());
+    assertEquals(10, new SyntheticTrace(SyntheticTrace.constant(10), SyntheticTrace.constant(5), 0.95, 0.1).size());
+  }
+
+  @Test
+  public void testDiurnal() {
+    SyntheticTrace trace = SyntheticTrace.create(SyntheticTrace.constant(0),
+      SyntheticTrace.diurnal(100, 0.5, 3600, 900), 7200);
+    assertEquals(7200, trace.size());
+
+    double total = 0;
+    double max = 0;
+    double min = Double.POSITIVE_INFINITY;
+    for (Generator.LoadSegment segment : trace) {
+      assertEquals(0, segment.getReadRate(), 0);
+      total += segment.getWriteRate() * segment.getSegmentDuration();
+      max = Math.max(max, segment.getWriteRate());
+      min = Math.min(min, segment.getWriteRate());
+    }
+    // whole cycles average out to the mean
+    assertEquals(100 * 7200, total, 1e-6 * total);
+    assertEquals(150, max, 0.01);
+    assertEquals(50, min, 0.01);
+  }
+
+  @Test
+  public void testPeriodicBatch() {
+    // the half hourly batch read from CustomerLoad on top of a light background, in 2s segments
+    SyntheticTrace trace = new SyntheticTrace(
+      SyntheticTrace.sum(SyntheticTrace.constant(10), SyntheticTrace.periodicBatch(6000, 5, 1800, 100)),
+      SyntheticTrace.onOff(50, 60, 240), 3600, 2);
+
+    double reads = 0;
+    double writes = 0;
+    for (Generator.LoadSegment segment : trace) {
+      reads += segment.getReadRate() * segment.getSegmentDuration();
+      writes += segment.getWriteRate() * segment.getSegmentDuration();
+    }
+    assertEquals(2 * 6000 + 10 * 3600, reads, 1e-6);
+    // on a fifth of the time
+    assertEquals(50 * 3600 / 5, writes, 1e-6);
+  }
+
+  @Test
+  public void testMarkovBursts() {
+    SyntheticTrace trace = SyntheticTrace.create(SyntheticTrace.markovBursts(10, 1000, 90, 10),
+      SyntheticTrace.constant(0), 1e6);
+    trace.setSeed(1);
+
+    double total = 0;
+    int bursty = 0;
+    for (Generator.LoadSegment segment : trace) {
+      total += segment.getReadRate();
+      if (segment.getReadRate() > 500) {
+        bursty++;
+      }
+    }
+    // a tenth of the time is spent bursting
+    assertEquals(10 * 0.9 + 1000 * 0.1, total / trace.size(), 3);
+    assertEquals(0.1, (double) bursty / trace.size(), 0.01);
+  }
+
+  @Test
+  public void testRepeatable() {
+    SyntheticTrace trace = new SyntheticTrace(SyntheticTrace.markovBursts(0, 100, 5, 1),
+      SyntheticTrace.markovBursts(10, 20, 1, 1), 100.5, 1);
+    List<Double> first = rates(trace);
+    // every pass is the same so parallel workers see the same trace
+    assertEquals(first, rates(trace));
+    assertEquals(101, first.size() / 3);
+    assertEquals(0.5, first.get(first.size() - 1), 0);
+    assertTrue(first.contains(0.0) && first.contains(100.0));
+  }
+
+  private List<Double> rates(SyntheticTrace trace) {
+    List<Double> r = Lists.newArrayList();
+    for (Generator.LoadSegment segment : trace) {
+      r.add(segment.getReadRate());
+      r.add(segment.getWriteRate());
+      r.add(segment.getSegmentDuration());
+    }
+    return r;
+  }
+}
@@ -26,4 +26,30 @@ public class TopTailAnalyzerTest {
       p /= 10;
     }
   }
+
+  @Test
+  public void testMerge() {
+    TopTailAnalyzer a = new TopTailAnalyzer();
+    TopTailAnalyzer b = new TopTailAnalyzer();
+    Random gen = new Random();
+    // two halves of the same uniform distribution, one of them much bigger
+    for (int i = 0; i < 1000000; i++) {
+      a.add(gen.nextDouble(), 100);
+    }
+    for (int i = 0; i < 100000; i++) {
+      b.add(gen.nextDouble(), 100);
+    }
+
+    a.merge(b);
+    assertEquals(1100000, a.size());
+    assertEquals(1100000 * 100.0, a.totalBytes(), 0);
+    assertEquals(0.5, a.meanLatency(), 0.01);
+
+    double p = 0.01;
+    for (int i = 2; i < 5; i++) {
+      final double relativeError = (1 - a.quantile(i)) / p - 1;
+      assertEquals(0, relativeError, 0.4);
+      p /= 10;
+    }
+  }
 }